@@ -1,8 +1,15 @@
 /**
  * Used to define if replica servers are ready for
  * prepare and commit phase or if they have failed.
+ * ACK_REJECTED is sent in the prepare phase when the
+ * condition of a conditional request does not hold.
+ * ACK_CONFLICT is sent in the prepare phase when the key
+ * is locked by an older transaction, the transaction is
+ * then aborted and retried with the same id.
  */
 public enum Acknowledgement {
     ACK_READY,
-    ACK_FAIL
+    ACK_FAIL,
+    ACK_REJECTED,
+    ACK_CONFLICT
 }
@@ -0,0 +1,237 @@
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Limits the number of transactions the coordinator runs at the same time.
+ * The limit adapts to the observed 2PC latency: it grows slowly while
+ * latency stays close to its usual level, and shrinks when latency rises
+ * or a transaction fails (additive increase, multiplicative decrease).
+ * Latency is judged once per window of samples, at least one per slot
+ * so a window covers a round trip of every transaction in flight: the
+ * median of the window is compared with a moving average of the medians
+ * of earlier windows, and the limit is cut at most once per window. Transactions over the limit wait in a bounded
+ * queue; once the queue is full, or the wait takes too long, the
+ * transaction is rejected straight away so the client can retry later.
+ */
+public class AdmissionController {
+    // median latency of a window above this multiple of the baseline is treated as congestion
+    private static final double LATENCY_TOLERANCE = 2.0;
+    private static final double DECREASE_FACTOR = 0.9;
+    // fewest samples in a window, more when the limit is higher
+    private static final int MIN_WINDOW_SAMPLES = 20;
+    // weight of the latest window in the baseline
+    private static final double BASELINE_ALPHA = 0.2;
+
+    private final int minLimit;
+    private final int maxLimit;
+    private final int maxQueueSize;
+    private final long maxWaitNanos;
+
+    // not fair, the lock is only held briefly; waiting transactions are served in order by the condition
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition available = lock.newCondition();
+    private double limit;
+    private int inFlight = 0;
+    // transactions in the queue, waiting for a slot or for their key
+    private int waiting = 0;
+    // transactions waiting for a slot, and slots already handed to them which they have not taken yet
+    private int slotWaiters = 0;
+    private int handedOver = 0;
+
+    // moving average of the window medians, 0 until the first window is complete
+    private double baselineLatencyNanos = 0;
+    private final long[] windowLatencies;
+    private int windowSamples = 0;
+    private boolean windowFailed = false;
+
+    private long admitted = 0;
+    private long rejected = 0;
+
+    /**
+     * Create an admission controller
+     * @param initialLimit number of concurrent transactions allowed at start
+     * @param maxLimit upper bound of the adaptive concurrency limit
+     * @param maxQueueSize number of transactions allowed to wait for a slot
+     * @param maxWaitMillis longest time a transaction waits for a slot
+     */
+    public AdmissionController(int initialLimit, int maxLimit, int maxQueueSize, long maxWaitMillis) {
+        if (initialLimit < 1 || maxLimit < initialLimit || maxQueueSize < 0 || maxWaitMillis < 0) {
+            throw new IllegalArgumentException("Invalid admission control settings");
+        }
+        this.minLimit = 1;
+        this.maxLimit = maxLimit;
+        this.maxQueueSize = maxQueueSize;
+        this.maxWaitNanos = TimeUnit.MILLISECONDS.toNanos(maxWaitMillis);
+        this.limit = initialLimit;
+        this.windowLatencies = new long[Math.max(MIN_WINDOW_SAMPLES, maxLimit)];
+    }
+
+    /**
+     * Try to admit a transaction, waiting in the queue if the limit is reached
+     * @return true if the transaction may run, false if it is rejected
+     * @throws InterruptedException thrown when interrupted while waiting in the queue
+     */
+    public boolean acquire() throws InterruptedException {
+        lock.lock();
+        try {
+            // a new transaction only takes a free slot directly if nobody is waiting for one
+            if (slotWaiters == 0 && inFlight < (int) limit) {
+                inFlight++;
+                admitted++;
+                return true;
+            }
+            if (waiting >= maxQueueSize) {
+                rejected++;
+                return false;
+            }
+            waiting++;
+            slotWaiters++;
+            try {
+                handOverFreeSlots();
+                long remaining = maxWaitNanos;
+                // slots are handed over by release, which counts them as in flight already
+                while (handedOver == 0) {
+                    if (remaining <= 0) {
+                        rejected++;
+                        return false;
+                    }
+                    remaining = available.awaitNanos(remaining);
+                }
+                handedOver--;
+                admitted++;
+                return true;
+            } finally {
+                waiting--;
+                slotWaiters--;
+                if (handedOver > slotWaiters) {
+                    // interrupted after a slot was handed over, give it back
+                    handedOver--;
+                    inFlight--;
+                    handOverFreeSlots();
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Take a place in the wait queue for a transaction which waits for
+     * something else before asking for a slot, such as its key, so all
+     * waiting transactions count against the same bound
+     * @return true if the transaction may wait, false if it is rejected
+     */
+    public boolean enterQueue() {
+        lock.lock();
+        try {
+            if (waiting >= maxQueueSize) {
+                rejected++;
+                return false;
+            }
+            waiting++;
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Give up a place taken with {@link #enterQueue()}
+     */
+    public void leaveQueue() {
+        lock.lock();
+        try {
+            waiting--;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Release the slot of a finished transaction and adjust the limit
+     * @param latencyNanos time the transaction took
+     * @param success true if the transaction completed
+     */
+    public void release(long latencyNanos, boolean success) {
+        lock.lock();
+        try {
+            inFlight--;
+            if (success && inFlight + 1 >= (int) limit) {
+                // only grow when the limit is actually being used
+                limit = Math.min(maxLimit, limit + 1 / limit);
+            }
+            windowFailed |= !success;
+            windowLatencies[windowSamples++] = latencyNanos;
+            if (windowSamples >= Math.min(windowLatencies.length, Math.max(MIN_WINDOW_SAMPLES, (int) limit))) {
+                endWindow();
+            }
+            handOverFreeSlots();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Give free slots to transactions waiting for one, longest waiting
+     * first, so a new transaction cannot take a slot before they wake up.
+     * Must hold the lock
+     */
+    private void handOverFreeSlots() {
+        while (slotWaiters > handedOver && inFlight < (int) limit) {
+            inFlight++;
+            handedOver++;
+            available.signal();
+        }
+    }
+
+    /**
+     * Judge the latency of a complete window: cut the limit once if the
+     * window saw a failure or its median latency is well above the
+     * baseline, otherwise let the baseline follow the median
+     */
+    private void endWindow() {
+        long[] samples = Arrays.copyOf(windowLatencies, windowSamples);
+        Arrays.sort(samples);
+        long median = samples[samples.length / 2];
+        boolean congested = windowFailed
+                || (baselineLatencyNanos > 0 && median > baselineLatencyNanos * LATENCY_TOLERANCE);
+        if (!congested) {
+            baselineLatencyNanos = baselineLatencyNanos == 0 ? median
+                    : baselineLatencyNanos + BASELINE_ALPHA * (median - baselineLatencyNanos);
+        } else if (limit <= minLimit && !windowFailed) {
+            // running one at a time is still slow, so the system itself got slower
+            baselineLatencyNanos = median;
+        } else {
+            limit = Math.max(minLimit, limit * DECREASE_FACTOR);
+        }
+        windowSamples = 0;
+        windowFailed = false;
+    }
+
+    /**
+     * @return current concurrency limit
+     */
+    int getLimit() {
+        lock.lock();
+        try {
+            return (int) limit;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return one line summary of the admission control state
+     */
+    public String getMetrics() {
+        lock.lock();
+        try {
+            return String.format("Admission control: limit=%d, inFlight=%d, waiting=%d/%d, admitted=%d, " +
+                    "rejected=%d", (int) limit, inFlight, waiting, maxQueueSize, admitted, rejected);
+        } finally {
+            lock.unlock();
+        }
+    }
+}
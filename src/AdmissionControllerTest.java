@@ -0,0 +1,96 @@
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Checks that the adaptive limit of the AdmissionController follows the
+ * load: steady load with the usual spread of latencies must keep the
+ * limit well above the minimum, and a sudden rise in latency must bring
+ * it down. Transactions are simulated by threads sleeping for the latency.
+ * Run with: java AdmissionControllerTest
+ */
+public class AdmissionControllerTest {
+    private static final int WRITERS = 40;
+    private static final int MAX_LIMIT = 50;
+
+    public static void main(String[] args) throws InterruptedException {
+        boolean passed = steadyLoadKeepsLimitUp();
+        passed &= latencyJumpLowersLimit();
+        if (!passed) {
+            System.exit(1);
+        }
+    }
+
+    /**
+     * 40 writers with 2ms transactions, one in ten taking three times as
+     * long, and nothing failing. The limit must grow and nothing be rejected
+     */
+    private static boolean steadyLoadKeepsLimitUp() throws InterruptedException {
+        AdmissionController controller = new AdmissionController(2, MAX_LIMIT, MAX_LIMIT, 2000);
+        AtomicLong latencyMillis = new AtomicLong(2);
+        run(controller, latencyMillis, 3000);
+        int limit = controller.getLimit();
+        String metrics = controller.getMetrics();
+        return check("steady load keeps the limit up", limit >= WRITERS / 2 && metrics.contains("rejected=0"),
+                metrics);
+    }
+
+    /**
+     * Transactions which suddenly take five times as long must lower the limit
+     */
+    private static boolean latencyJumpLowersLimit() throws InterruptedException {
+        AdmissionController controller = new AdmissionController(2, MAX_LIMIT, MAX_LIMIT, 2000);
+        AtomicLong latencyMillis = new AtomicLong(2);
+        Thread writers = new Thread(() -> {
+            try {
+                run(controller, latencyMillis, 3000);
+            } catch (InterruptedException ie) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        writers.start();
+        Thread.sleep(2000);
+        int before = controller.getLimit();
+        latencyMillis.set(10);
+        Thread.sleep(300);
+        int after = controller.getLimit();
+        writers.join();
+        return check("latency jump lowers the limit", after < before,
+                String.format("limit %d before the jump, %d after", before, after));
+    }
+
+    /**
+     * Run the writers for the given time, each taking a slot, sleeping for
+     * the latency and releasing the slot
+     */
+    private static void run(AdmissionController controller, AtomicLong latencyMillis, long millis)
+            throws InterruptedException {
+        long deadline = System.currentTimeMillis() + millis;
+        Thread[] threads = new Thread[WRITERS];
+        for (int w = 0; w < WRITERS; w++) {
+            threads[w] = new Thread(() -> {
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                try {
+                    while (System.currentTimeMillis() < deadline) {
+                        if (!controller.acquire()) {
+                            continue;
+                        }
+                        long start = System.nanoTime();
+                        Thread.sleep(latencyMillis.get() * (random.nextInt(10) == 0 ? 3 : 1));
+                        controller.release(System.nanoTime() - start, true);
+                    }
+                } catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                }
+            });
+            threads[w].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+    }
+
+    private static boolean check(String name, boolean passed, String details) {
+        System.out.printf("%s: %s (%s)%n", passed ? "PASS" : "FAIL", name, details);
+        return passed;
+    }
+}
@@ -5,6 +5,7 @@ import java.rmi.NotBoundException;
 import java.rmi.RemoteException;
 import java.rmi.registry.LocateRegistry;
 import java.rmi.registry.Registry;
+import java.rmi.server.UnicastRemoteObject;
 import java.util.Scanner;
 import java.util.logging.FileHandler;
 import java.util.logging.Level;
@@ -46,6 +47,20 @@ public class Client {
             ClientLog.log(Level.INFO, iae.getMessage());
         }
 
+        // optional size of the near cache, caching is disabled when not given
+        int nearCacheSize = 0;
+        if (args.length > 1) {
+            try {
+                nearCacheSize = parseInt(args[1]);
+            } catch (NumberFormatException nfe) {
+                System.out.println("Invalid near cache size, caching disabled");
+                ClientLog.log(Level.INFO, "Invalid near cache size, caching disabled");
+            }
+        }
+
+        // optional "hedge" argument sends a second read when a replica is slow
+        boolean hedging = args.length > 2 && args[2].equalsIgnoreCase("hedge");
+
         // create an array to store the server (participants)
         Participant[] participants = new Participant[serverCount];
         // create an array for looking up registries
@@ -63,6 +78,18 @@ public class Client {
             }
         }
 
+        // used when the user leaves the choice of server to the client
+        ReplicaSelector replicaSelector = new ReplicaSelector(participants, hedging, 0.95);
+
+        // subscribe the near cache to invalidations from every replica
+        NearCache nearCache = null;
+        if (nearCacheSize > 0) {
+            nearCache = new NearCache(nearCacheSize);
+            for (Participant participant : participants) {
+                participant.subscribe(nearCache);
+            }
+            ClientLog.log(Level.INFO, String.format("Near cache enabled with size %s", nearCacheSize));
+        }
 
         String inputOperation = "";
         String server_number_input;
@@ -76,7 +103,7 @@ public class Client {
                 boolean server_flag = true;
                 int server_number = 0;
                 while (server_flag){
-                    System.out.println("Enter server to be requested from (1-5)");
+                    System.out.println("Enter server to be requested from (1-5, or 0 for automatic selection)");
                     server_number_input = scanner.nextLine().trim();
                     if (server_number_input.equalsIgnoreCase("Q")) {
                         break;
@@ -84,20 +111,23 @@ public class Client {
                     try {
                         Integer.parseInt(server_number_input);
                     } catch (NumberFormatException nfe) {
-                        System.out.println("Please enter a server number between 1 and 5");
+                        System.out.println("Please enter a server number between 1 and 5, or 0 for automatic selection");
                         continue;
                     }
-                    if (Integer.parseInt(server_number_input) < 1
+                    if (Integer.parseInt(server_number_input) < 0
                             || Integer.parseInt(server_number_input) > 5) {
-                        System.out.println("Please enter a server number between 1 and 5");
+                        System.out.println("Please enter a server number between 1 and 5, or 0 for automatic selection");
                     } else {
                         server_number = Integer.parseInt(server_number_input) - 1;
                         server_flag = false;
                     }
                 }
-                ClientLog.log(Level.INFO, String.format("Client requested from server number: %s", server_number));
+                // -1 means the replica is picked automatically for every request
+                boolean automatic = server_number < 0;
+                ClientLog.log(Level.INFO, automatic ? "Client requested automatic server selection"
+                        : String.format("Client requested from server number: %s", server_number));
 
-                System.out.println("Enter operation GET/PUT/DEL: ");
+                System.out.println("Enter operation GET/PUT/DEL/CAS/CASV/VERSION/PUTIFABSENT/DELIFEQ/INCR/STATS/TRACE: ");
                 inputOperation = scanner.nextLine();
                 String reply;
 
@@ -107,9 +137,16 @@ public class Client {
                     case "GET":
                         System.out.println("Enter key to get value from store: ");
                         String getKey = scanner.nextLine();
-                        String getResponse;
+                        String getResponse = nearCache == null ? null : nearCache.get(getKey);
                         try {
-                            getResponse = participants[server_number].clientRequest("GET", getKey, null);
+                            if (getResponse == null) {
+                                long epoch = nearCache == null ? 0 : nearCache.epoch();
+                                getResponse = automatic ? replicaSelector.get(getKey)
+                                        : participants[server_number].clientRequest("GET", getKey, null);
+                                if (nearCache != null) {
+                                    nearCache.put(getKey, getResponse, epoch);
+                                }
+                            }
                             reply = String.format("GET request successful. The value for '%s' is '%s'", getKey, getResponse);
                         } catch (IllegalArgumentException iae) {
                             reply = iae.getMessage();
@@ -124,8 +161,26 @@ public class Client {
                         String putKey = scanner.nextLine();
                         System.out.print("Enter value: ");
                         String putValue = scanner.nextLine();
-                        if (participants[server_number].clientRequest("PUT", putKey, putValue).equals("success")) {
+                        System.out.print("Enter time to live in seconds (leave empty to never expire): ");
+                        String putTtl = scanner.nextLine().trim();
+                        Participant putServer = automatic ? replicaSelector.choose() : participants[server_number];
+                        String putResponse;
+                        try {
+                            putResponse = putTtl.isEmpty() ? putServer.clientRequest("PUT", putKey, putValue)
+                                    : putServer.putWithTtl(putKey, putValue, parseInt(putTtl) * 1000L);
+                        } catch (IllegalArgumentException iae) {
+                            System.out.println("Please enter a positive whole number of seconds");
+                            ClientLog.log(Level.INFO, "Invalid time to live");
+                            break;
+                        }
+                        if (putResponse.equals("success")) {
                             reply = String.format("PUT request successful. Key '%s' and value '%s' updated in store", putKey, putValue);
+                            if (nearCache != null) {
+                                nearCache.remove(putKey);
+                            }
+                        }
+                        else if (putResponse.equals("overloaded")) {
+                            reply = "PUT request rejected. Servers are overloaded, please retry";
                         }
                         else {
                             reply = "PUT request unsuccessful. Server failed";
@@ -139,16 +194,109 @@ public class Client {
                         System.out.println("Enter key to remove from store: ");
                         System.out.print("Enter key: ");
                         String delKey = scanner.nextLine();
-                        String response = participants[server_number].clientRequest("DEL", delKey, null);
+                        Participant delServer = automatic ? replicaSelector.choose() : participants[server_number];
+                        String response = delServer.clientRequest("DEL", delKey, null);
                         if (response.equals("Invalid key")) {
                             reply = "This key is not present in key value store";
+                        } else if (response.equals("overloaded")) {
+                            reply = "DELETE request rejected. Servers are overloaded, please retry";
                         } else {
+                            if (nearCache != null) {
+                                nearCache.remove(delKey);
+                            }
                             reply = String.format("DELETE request successful. The key '%s' has been removed from " +
                                     "the store", delKey);
                         }
                         System.out.println(reply);
                         ClientLog.log(Level.INFO, reply);
                         break;
+                    // version of a key, to be used as the expected version of a CASV request
+                    case "VERSION":
+                        System.out.print("Enter key: ");
+                        String versionKey = scanner.nextLine();
+                        Participant versionServer = automatic ? replicaSelector.choose() : participants[server_number];
+                        String version = versionServer.clientRequest("VERSION", versionKey, null);
+                        reply = version.equals("0")
+                                ? String.format("The key '%s' is not present in the store", versionKey)
+                                : String.format("The version of key '%s' is %s", versionKey, version);
+                        System.out.println(reply);
+                        ClientLog.log(Level.INFO, reply);
+                        break;
+                    // conditional and atomic updates, checked and applied by the servers in one transaction
+                    case "CAS":
+                    case "CASV":
+                    case "PUTIFABSENT":
+                    case "DELIFEQ":
+                    case "INCR":
+                        String operation = inputOperation.toUpperCase().trim();
+                        System.out.print("Enter key: ");
+                        String conditionalKey = scanner.nextLine();
+                        String conditionalValue = null;
+                        String expected = null;
+                        if (!operation.equals("DELIFEQ")) {
+                            System.out.print(operation.equals("INCR") ? "Enter amount to add: " : "Enter new value: ");
+                            conditionalValue = scanner.nextLine();
+                        }
+                        if (operation.equals("CAS") || operation.equals("DELIFEQ")) {
+                            System.out.print("Enter expected current value: ");
+                            expected = scanner.nextLine();
+                        } else if (operation.equals("CASV")) {
+                            System.out.print("Enter expected version (see VERSION): ");
+                            expected = scanner.nextLine();
+                        }
+                        Participant conditionalServer = automatic ? replicaSelector.choose() : participants[server_number];
+                        try {
+                            String conditionalResponse = conditionalServer.conditionalRequest(operation, conditionalKey,
+                                    conditionalValue, expected);
+                            if (conditionalResponse.equals("condition failed")) {
+                                reply = String.format("%s request not applied. The condition for key '%s' does not hold",
+                                        operation, conditionalKey);
+                            } else if (conditionalResponse.equals("overloaded")) {
+                                reply = operation + " request rejected. Servers are overloaded, please retry";
+                            } else if (conditionalResponse.equals("fail")) {
+                                reply = operation + " request unsuccessful. Server failed";
+                            } else {
+                                if (nearCache != null) {
+                                    nearCache.remove(conditionalKey);
+                                }
+                                reply = operation.equals("INCR")
+                                        ? String.format("INCR request successful. The value for '%s' is now '%s'",
+                                        conditionalKey, conditionalResponse)
+                                        : String.format("%s request successful for key '%s'", operation, conditionalKey);
+                            }
+                        } catch (IllegalArgumentException iae) {
+                            reply = iae.getMessage();
+                        }
+                        System.out.println(reply);
+                        ClientLog.log(Level.INFO, reply);
+                        break;
+                    // print replica and near cache metrics
+                    case "STATS":
+                        reply = replicaSelector.getMetrics();
+                        if (nearCache != null) {
+                            reply += "\n" + nearCache.getMetrics();
+                        }
+                        for (Participant participant : participants) {
+                            reply += "\n" + participant.getStoreMetrics();
+                        }
+                        System.out.println(reply);
+                        ClientLog.log(Level.INFO, reply);
+                        break;
+                    // write the phase timings recorded by every server to trace files for TraceAnalyzer
+                    case "TRACE":
+                        reply = "Trace files written:";
+                        // one central coordinator, or one coordinator per server in the distributed mode
+                        for (String name : registries[0].list()) {
+                            if (name.startsWith("Coordinator")) {
+                                reply += " " + ((Coordinator) registries[0].lookup(name)).dumpTrace();
+                            }
+                        }
+                        for (Participant participant : participants) {
+                            reply += " " + participant.dumpTrace();
+                        }
+                        System.out.println(reply);
+                        ClientLog.log(Level.INFO, reply);
+                        break;
                     // exit process
                     case "Q":
                         System.out.println("Quitting...");
@@ -163,5 +311,18 @@ public class Client {
         } catch (RemoteException re) {
             System.out.println("Exception in remote invocation: " + re.getMessage());
         }
+
+        // stop receiving invalidations so the client can exit
+        if (nearCache != null) {
+            ClientLog.log(Level.INFO, nearCache.getMetrics());
+            for (Participant participant : participants) {
+                try {
+                    participant.unsubscribe(nearCache);
+                } catch (RemoteException re) {
+                    ClientLog.log(Level.INFO, "Unsubscribe failed: " + re.getMessage());
+                }
+            }
+            UnicastRemoteObject.unexportObject(nearCache, true);
+        }
     }
 }
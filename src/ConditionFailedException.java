@@ -0,0 +1,10 @@
+/**
+ * Thrown by the coordinator when a participant rejected a conditional
+ * request in the prepare phase because its condition does not hold,
+ * for example the current value differs from the expected value.
+ */
+public class ConditionFailedException extends Exception {
+    public ConditionFailedException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,197 @@
+import java.rmi.RemoteException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.ToDoubleFunction;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Compares the write throughput of the central coordinator with the
+ * distributed mode, where every server coordinates the transactions it
+ * receives. The servers run in this process and are called directly, so
+ * the numbers show the cost of coordination rather than of the network.
+ * Clients send PUT requests spread over all servers; a share of them can
+ * go to a few hot keys to show the cost of conflicts between coordinators.
+ * Both modes get the same total number of admission slots and threads,
+ * split over the coordinators in the distributed mode. Every run starts
+ * new servers and warms them up before measuring, and the runs of the two
+ * modes alternate in order, so neither mode gains from running later.
+ * Each configuration is run several times and the median is reported,
+ * together with the concurrency limit the admission controllers allowed
+ * on average, summed over the coordinators of the mode.
+ * Run with: java CoordinationBenchmark [seconds per run] [hot key percentage] [repetitions]
+ */
+public class CoordinationBenchmark {
+    private static final int[] CLIENT_COUNTS = {1, 5, 10, 20, 40};
+    private static final int SERVER_COUNT = 5;
+    private static final int HOT_KEYS = 4;
+    // shared by the coordinators of a run: 50 for the central one, 10 for each in the distributed mode
+    private static final int TOTAL_IN_FLIGHT = 50;
+    private static final int TOTAL_QUEUE_SIZE = 250;
+    private static final int TOTAL_THREADS = 50;
+    private static final long WARM_UP_MILLIS = 1000;
+    private static final long LIMIT_SAMPLE_MILLIS = 100;
+
+    public static void main(String[] args) throws Exception {
+        int seconds = args.length > 0 ? Integer.parseInt(args[0]) : 3;
+        int hotKeyPercentage = args.length > 1 ? Integer.parseInt(args[1]) : 0;
+        int repetitions = args.length > 2 ? Integer.parseInt(args[2]) : 3;
+        // logging to the console would dominate the measurement
+        Logger.getLogger(CoordinatorImpl.class.getName()).setLevel(Level.OFF);
+
+        System.out.printf("%ds per run after %dms warm-up, %d%% of the PUTs to %d hot keys, %d repetitions, "
+                        + "%d processors%n", seconds, WARM_UP_MILLIS, hotKeyPercentage, HOT_KEYS, repetitions,
+                Runtime.getRuntime().availableProcessors());
+        Map<String, List<Result>> results = new HashMap<>();
+        for (int repetition = 0; repetition < repetitions; repetition++) {
+            for (int c = 0; c < CLIENT_COUNTS.length; c++) {
+                // alternate which mode goes first
+                boolean distributedFirst = (repetition + c) % 2 == 1;
+                for (boolean distributed : new boolean[]{distributedFirst, !distributedFirst}) {
+                    Result result = run(distributed, CLIENT_COUNTS[c], seconds, hotKeyPercentage);
+                    results.computeIfAbsent(name(distributed, CLIENT_COUNTS[c]), key -> new ArrayList<>())
+                            .add(result);
+                }
+            }
+        }
+
+        System.out.printf("%-12s %8s %12s %21s %10s %10s %10s %12s %16s%n", "mode", "clients", "PUTs/s",
+                "PUTs/s min-max", "limit", "failed", "overloaded", "avg ms", "conflict retries");
+        for (boolean distributed : new boolean[]{false, true}) {
+            for (int clients : CLIENT_COUNTS) {
+                List<Result> runs = results.get(name(distributed, clients));
+                System.out.printf("%-12s %8d %12.0f %10.0f-%-10.0f %10.1f %10.0f %10.0f %12.3f %16.0f%n",
+                        distributed ? "distributed" : "central", clients,
+                        median(runs, result -> result.putsPerSecond),
+                        runs.stream().mapToDouble(result -> result.putsPerSecond).min().orElse(0),
+                        runs.stream().mapToDouble(result -> result.putsPerSecond).max().orElse(0),
+                        median(runs, result -> result.averageLimit), median(runs, result -> result.failed), median(runs, result -> result.overloaded),
+                        median(runs, result -> result.averageMillis), median(runs, result -> result.conflictRetries));
+            }
+        }
+    }
+
+    private static Result run(boolean distributed, int clients, int seconds, int hotKeyPercentage)
+            throws Exception {
+        ParticipantImpl[] participants = new ParticipantImpl[SERVER_COUNT];
+        for (int i = 0; i < SERVER_COUNT; i++) {
+            participants[i] = new ParticipantImpl(i + 1);
+        }
+        int coordinatorCount = distributed ? SERVER_COUNT : 1;
+        CoordinatorImpl[] coordinators = CoordinatorImpl.connect(participants, distributed,
+                TOTAL_IN_FLIGHT / coordinatorCount, TOTAL_QUEUE_SIZE / coordinatorCount,
+                TOTAL_THREADS / coordinatorCount);
+
+        AtomicLong succeeded = new AtomicLong();
+        AtomicLong failed = new AtomicLong();
+        AtomicLong overloaded = new AtomicLong();
+        AtomicLong totalNanos = new AtomicLong();
+        long measureFrom = System.nanoTime() + WARM_UP_MILLIS * 1_000_000L;
+        long deadline = measureFrom + seconds * 1_000_000_000L;
+        Thread[] threads = new Thread[clients];
+        for (int c = 0; c < clients; c++) {
+            int client = c;
+            threads[c] = new Thread(() -> {
+                // each client sends its requests to one server, so every server receives requests
+                Participant entry = participants[client % SERVER_COUNT];
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                long sequence = 0;
+                while (System.nanoTime() < deadline) {
+                    String key = random.nextInt(100) < hotKeyPercentage ? "hot" + random.nextInt(HOT_KEYS)
+                            : "client" + client + "-" + sequence++;
+                    long start = System.nanoTime();
+                    String reply;
+                    try {
+                        reply = entry.clientRequest("PUT", key, "value" + sequence);
+                    } catch (RemoteException re) {
+                        reply = "fail";
+                    }
+                    // requests started during the warm-up are not counted
+                    if (start < measureFrom) {
+                        continue;
+                    }
+                    totalNanos.addAndGet(System.nanoTime() - start);
+                    if (reply.equals("success")) {
+                        succeeded.incrementAndGet();
+                    } else if (reply.equals("overloaded")) {
+                        overloaded.incrementAndGet();
+                    } else {
+                        failed.incrementAndGet();
+                    }
+                }
+            });
+            threads[c].start();
+        }
+        Thread.sleep(WARM_UP_MILLIS);
+        long warmUpRetries = conflictRetries(coordinators);
+        long limitSum = 0;
+        int limitSamples = 0;
+        while (System.nanoTime() < deadline) {
+            for (CoordinatorImpl coordinator : coordinators) {
+                limitSum += coordinator.getAdmissionLimit();
+            }
+            limitSamples++;
+            Thread.sleep(LIMIT_SAMPLE_MILLIS);
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        Result result = new Result();
+        long requests = succeeded.get() + failed.get() + overloaded.get();
+        result.putsPerSecond = succeeded.get() / (double) seconds;
+        result.failed = failed.get();
+        result.overloaded = overloaded.get();
+        result.averageMillis = requests == 0 ? 0.0 : totalNanos.get() / 1e6 / requests;
+        result.conflictRetries = conflictRetries(coordinators) - warmUpRetries;
+        result.averageLimit = limitSamples == 0 ? 0.0 : (double) limitSum / limitSamples;
+
+        for (CoordinatorImpl coordinator : coordinators) {
+            coordinator.shutdown();
+        }
+        for (ParticipantImpl participant : participants) {
+            participant.shutdown();
+        }
+        // the garbage of one run should not be collected during the next
+        System.gc();
+        return result;
+    }
+
+    private static long conflictRetries(CoordinatorImpl[] coordinators) {
+        long retries = 0;
+        for (CoordinatorImpl coordinator : coordinators) {
+            retries += coordinator.getConflictRetries();
+        }
+        return retries;
+    }
+
+    private static String name(boolean distributed, int clients) {
+        return (distributed ? "distributed" : "central") + clients;
+    }
+
+    private static double median(List<Result> runs, ToDoubleFunction<Result> metric) {
+        List<Result> sorted = new ArrayList<>(runs);
+        sorted.sort(Comparator.comparingDouble(metric));
+        int middle = sorted.size() / 2;
+        return sorted.size() % 2 == 1 ? metric.applyAsDouble(sorted.get(middle))
+                : (metric.applyAsDouble(sorted.get(middle - 1)) + metric.applyAsDouble(sorted.get(middle))) / 2;
+    }
+
+    /**
+     * Measurements of one run
+     */
+    private static class Result {
+        private double putsPerSecond;
+        private long failed;
+        private long overloaded;
+        private double averageMillis;
+        private long conflictRetries;
+        // concurrency limit of all coordinators together, averaged over the run
+        private double averageLimit;
+    }
+}
@@ -22,7 +22,17 @@ public interface Coordinator extends Remote {
      * @param transaction input request by client
      * @return true or false depending on 2PC output
      * @throws RemoteException thrown when remote invocation fails
+     * @throws OverloadedException thrown when the coordinator rejects the transaction because it is overloaded
+     * @throws ConditionFailedException thrown when the condition of a conditional request does not hold
      */
-    boolean initiate2PC(Transaction transaction) throws RemoteException;
+    boolean initiate2PC(Transaction transaction) throws RemoteException, OverloadedException,
+            ConditionFailedException;
 
+    /**
+     * Write the recent phase timings of transactions run by the coordinator
+     * to a binary trace file, which can be read by TraceAnalyzer
+     * @return name of the trace file
+     * @throws RemoteException thrown when remote invocation fails or the file cannot be written
+     */
+    String dumpTrace() throws RemoteException;
 }
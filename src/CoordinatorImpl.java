@@ -1,6 +1,9 @@
 import logger.Logging;
 
 import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.rmi.NoSuchObjectException;
 import java.rmi.RemoteException;
 import java.rmi.registry.LocateRegistry;
 import java.rmi.registry.Registry;
@@ -8,10 +11,15 @@ import java.rmi.server.UnicastRemoteObject;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.logging.FileHandler;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -22,26 +30,54 @@ import static java.lang.Integer.parseInt;
  * Coordinator implementation which maintains a list
  * of all the servers to which client connects to. Operations
  * are performed following two-phase commit protocol.
+ * In the distributed mode every server has a coordinator of
+ * its own, which runs the transactions received by that server.
  */
 public class CoordinatorImpl extends UnicastRemoteObject implements Coordinator {
     private static final Logger ServerLog = Logger.getLogger(CoordinatorImpl.class.getName());
     private final Participant[] participantList = new Participant[5];
-    private final ExecutorService executorService = Executors.newFixedThreadPool(10);
-    private final Boolean[] votes = {false, false, false, false, false};
+    // threads sending prepare, commit and abort to the participants, used when the servers are started
+    private static final int DEFAULT_THREADS = 10;
+    private final ExecutorService executorService;
+    private final AdmissionController admissionController;
+    // a lock for every key with transactions running or waiting, so transactions on the same key run
+    // one after the other instead of competing for the participants' key locks
+    private final ConcurrentHashMap<String, KeyLock> keyLocks = new ConcurrentHashMap<>();
+    // how long a transaction waits for earlier transactions on the same key
+    private static final long KEY_LOCK_WAIT_MILLIS = 2000;
+    // how often a transaction which lost a key to an older transaction is tried again
+    private static final int MAX_CONFLICT_RETRIES = 20;
+    // 0 for the central coordinator, otherwise the server this coordinator runs on
+    private final int coordinatorId;
+    private final TraceRecorder traceRecorder;
+    private final AtomicLong conflictRetries = new AtomicLong();
 
-    protected CoordinatorImpl() throws RemoteException {
+    /**
+     * Create a coordinator
+     * @param admissionController limits the number of transactions run at once
+     * @param coordinatorId 0 for the central coordinator, otherwise the server the coordinator runs on
+     * @param threads number of threads sending requests to the participants
+     * @throws RemoteException thrown when the coordinator cannot be exported
+     */
+    protected CoordinatorImpl(AdmissionController admissionController, int coordinatorId, int threads)
+            throws RemoteException {
         super();
+        this.executorService = Executors.newFixedThreadPool(threads);
+        this.admissionController = admissionController;
+        this.coordinatorId = coordinatorId;
+        this.traceRecorder = new TraceRecorder(coordinatorId, TraceRecorder.DEFAULT_CAPACITY);
     }
 
     /**
      * Helper method to start the 'prepare to commit' step of
      * two-phase commit protocol.
      * @param request request made by the client
-     * @return boolean value depending on success/failure of 2PC
+     * @return READY if all servers are ready, REJECTED if a condition failed, FAIL otherwise
      */
-    private boolean broadcastPrepare(Transaction request) {
+    private Acknowledgement broadcastPrepare(Transaction request) {
         ServerLog.log(Level.INFO, String.format("Coordinator broadcasting to all servers to prepare to commit for %s " +
-                "operation. Key: %s, Value: %s", request.getRequest(), request.getKey(), request.getValue()));
+                "operation %s. Key: %s, Value: %s", request.getRequest(), request.getId(), request.getKey(),
+                ValueCompression.describe(request.getValue())));
         return execute2PC(request);
     }
 
@@ -53,12 +89,37 @@ public class CoordinatorImpl extends UnicastRemoteObject implements Coordinator
      */
     private boolean broadcastCommit(Transaction request) {
         ServerLog.log(Level.INFO, String.format("Coordinator broadcasting to all servers to commit for %s " +
-                "operation. Key: %s, Value: %s", request.getRequest(), request.getKey(), request.getValue()));
-        return execute2PC(request);
+                "operation %s. Key: %s, Value: %s", request.getRequest(), request.getId(), request.getKey(),
+                ValueCompression.describe(request.getValue())));
+        return execute2PC(request) == Acknowledgement.ACK_READY;
     }
 
+    /**
+     * Helper method to tell all servers to abort a transaction
+     * which did not pass the prepare phase, so they release the
+     * key locked for it.
+     * @param request request made by the client
+     */
     private void broadcastAbort(Transaction request) {
-
+        ServerLog.log(Level.INFO, String.format("Coordinator broadcasting to all servers to abort %s " +
+                "operation. Key: %s", request.getRequest(), request.getKey()));
+        List<Future<?>> futures = new ArrayList<>();
+        for (Participant participant : participantList) {
+            futures.add(executorService.submit(() -> {
+                try {
+                    participant.abort(request);
+                } catch (RemoteException re) {
+                    ServerLog.log(Level.WARNING, "Abort failed for a participant: " + re.getMessage());
+                }
+            }));
+        }
+        try {
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } catch (ExecutionException | InterruptedException e) {
+            ServerLog.log(Level.WARNING, "Abort did not complete on all servers");
+        }
     }
 
     /**
@@ -66,11 +127,13 @@ public class CoordinatorImpl extends UnicastRemoteObject implements Coordinator
      * Initial state prepares all servers to commit, Commit state
      * tells all servers to perform the commit.
      * @param request request made by the client
-     * @return boolean value depending on success/failure of 2PC
+     * @return READY if all servers acknowledged, REJECTED if a condition failed, FAIL otherwise
      */
-    private boolean execute2PC(Transaction request) {
+    private Acknowledgement execute2PC(Transaction request) {
         // used for running the operation concurrently
         List<Future<String>> futures = new ArrayList<>();
+        // votes are kept per call so concurrent transactions do not overwrite each other
+        Boolean[] votes = {false, false, false, false, false};
 
         // if the request state is COMMIT, tell all servers to perform commit
         if (request.getState() == States.COMMIT) {
@@ -79,10 +142,9 @@ public class CoordinatorImpl extends UnicastRemoteObject implements Coordinator
                     try {
                         Acknowledgement ack = participant.commit(request);
                         ServerLog.log(Level.INFO, String.format("Received ready commit acknowledgement from " +
-                                "participant %s", participant.getPartId()));
+                                "participant %s for transaction %s", participant.getPartId(), request.getId()));
                         return ack.toString();
                     } catch (Exception e) {
-                        broadcastAbort(request);
                         return Acknowledgement.ACK_FAIL.toString();
                     }
                 });
@@ -97,10 +159,9 @@ public class CoordinatorImpl extends UnicastRemoteObject implements Coordinator
                     try {
                         Acknowledgement ack = participant.prepare(request);
                         ServerLog.log(Level.INFO, String.format("Received ready prepare acknowledgement from " +
-                                "participant %s", participant.getPartId()));
+                                "participant %s for transaction %s", participant.getPartId(), request.getId()));
                         return ack.toString();
                     } catch (Exception e) {
-                        broadcastAbort(request);
                         return "down";
                     }
                 });
@@ -109,11 +170,19 @@ public class CoordinatorImpl extends UnicastRemoteObject implements Coordinator
         }
 
         int index = 0;
+        boolean rejected = false;
+        boolean conflict = false;
         try {
             for (Future<String> future : futures) {
                 if (future.get().equals(Acknowledgement.ACK_READY.toString())) {
                     votes[index] = true;
                     index++;
+                } else if (future.get().equals(Acknowledgement.ACK_REJECTED.toString())) {
+                    // the condition failed, waiting will not change the vote
+                    rejected = true;
+                } else if (future.get().equals(Acknowledgement.ACK_CONFLICT.toString())) {
+                    // an older transaction holds the key, the transaction is retried instead
+                    conflict = true;
                 } else {
                     Thread.sleep(1000);
                     if (future.get().equals(Acknowledgement.ACK_READY.toString())) {
@@ -128,13 +197,19 @@ public class CoordinatorImpl extends UnicastRemoteObject implements Coordinator
         }
         if (allVotesTrue(votes)) {
             ServerLog.log(Level.INFO, "Received ready votes from all participants");
-            setVotesFalse(votes);
-            return true;
+            return Acknowledgement.ACK_READY;
+        }
+        else if (rejected) {
+            ServerLog.log(Level.INFO, "At least one of the server participants rejected the condition");
+            return Acknowledgement.ACK_REJECTED;
+        }
+        else if (conflict) {
+            ServerLog.log(Level.INFO, "At least one of the server participants holds the key for an older transaction");
+            return Acknowledgement.ACK_CONFLICT;
         }
         else {
             ServerLog.log(Level.INFO, "At least one of the server participants failed");
-            setVotesFalse(votes);
-            return false;
+            return Acknowledgement.ACK_FAIL;
         }
     }
 
@@ -155,10 +230,6 @@ public class CoordinatorImpl extends UnicastRemoteObject implements Coordinator
         return !Arrays.asList(votes).contains(false);
     }
 
-    private void setVotesFalse(Boolean[] votes) {
-        Arrays.fill(votes, false);
-    }
-
     /**
      * Initiate the 2PC protocol with a transaction request. This
      * request is the operation requested by the client and the key-value
@@ -166,25 +237,270 @@ public class CoordinatorImpl extends UnicastRemoteObject implements Coordinator
      * @param transaction input request by client
      * @return true or false depending on 2PC output
      * @throws RemoteException thrown when remote invocation fails
+     * @throws OverloadedException thrown when the coordinator rejects the transaction because it is overloaded
+     * @throws ConditionFailedException thrown when the condition of a conditional request does not hold
      */
     @Override
-    public boolean initiate2PC(Transaction transaction) throws RemoteException {
-        ServerLog.log(Level.INFO, "Initiating 2PC");
-        if (!broadcastPrepare(transaction)) {
-            ServerLog.log(Level.INFO, "Broadcast prepare failed");
+    public boolean initiate2PC(Transaction transaction) throws RemoteException, OverloadedException,
+            ConditionFailedException {
+        traceRecorder.start(transaction.getId(), TraceRecorder.ADMISSION);
+        // transactions on the same key wait for each other before taking an admission slot, so writers
+        // queued on a hot key neither hold slots needed by other keys nor count as 2PC latency
+        // an EXPIRE batch has no single key, the participants lock each of its keys instead
+        KeyLock keyLock = transaction.getKey() == null ? null : lockKey(transaction);
+        try {
+            return admitAndRun(transaction);
+        } finally {
+            if (keyLock != null) {
+                keyLock.lock.unlock();
+                releaseKeyLock(transaction.getKey(), keyLock);
+            }
+        }
+    }
+
+    /**
+     * Wait until no other transaction on the key runs at this coordinator.
+     * A transaction which has to wait takes a place in the admission queue
+     * while it waits, so waiting for a hot key is bounded like waiting for
+     * admission, and is rejected at once when the queue is full
+     * @param transaction input request by client
+     * @return lock of the key, held by the calling thread
+     * @throws OverloadedException thrown when the queue is full or the key stayed busy
+     */
+    private KeyLock lockKey(Transaction transaction) throws OverloadedException {
+        String key = transaction.getKey();
+        KeyLock keyLock = keyLocks.compute(key, (k, held) -> {
+            KeyLock used = held == null ? new KeyLock() : held;
+            used.users++;
+            return used;
+        });
+        boolean locked = keyLock.lock.tryLock();
+        try {
+            if (locked) {
+                return keyLock;
+            }
+            if (!admissionController.enterQueue()) {
+                rejectBeforeAdmission(transaction, "Coordinator is overloaded, please retry");
+            }
+            try {
+                locked = keyLock.lock.tryLock(KEY_LOCK_WAIT_MILLIS, TimeUnit.MILLISECONDS);
+            } finally {
+                admissionController.leaveQueue();
+            }
+            if (!locked) {
+                rejectBeforeAdmission(transaction, "Key is busy, please retry");
+            }
+            return keyLock;
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            traceRecorder.end(transaction.getId(), TraceRecorder.ADMISSION, TraceRecorder.FAILED);
+            throw new OverloadedException("Interrupted while waiting for the key");
+        } finally {
+            if (!locked) {
+                releaseKeyLock(key, keyLock);
+            }
+        }
+    }
+
+    private void rejectBeforeAdmission(Transaction transaction, String reason) throws OverloadedException {
+        ServerLog.log(Level.WARNING, String.format("Rejected transaction %s on key %s: %s. %s", transaction.getId(),
+                transaction.getKey(), reason, admissionController.getMetrics()));
+        traceRecorder.end(transaction.getId(), TraceRecorder.ADMISSION, TraceRecorder.FAILED);
+        throw new OverloadedException(reason);
+    }
+
+    /**
+     * Drop the lock of a key once no transaction uses or waits for it
+     */
+    private void releaseKeyLock(String key, KeyLock keyLock) {
+        keyLocks.computeIfPresent(key, (k, held) -> held != keyLock || --held.users > 0 ? held : null);
+    }
+
+    /**
+     * Lock of one key and the number of transactions holding or waiting
+     * for it, only changed inside the compute methods of the key map
+     */
+    private static class KeyLock {
+        private final ReentrantLock lock = new ReentrantLock(true);
+        private int users = 0;
+    }
+
+    /**
+     * Run a transaction once the admission controller lets it in. Only the
+     * time spent in 2PC is reported back to the admission controller
+     * @param transaction input request by client
+     * @return true or false depending on 2PC output
+     * @throws OverloadedException thrown when the coordinator rejects the transaction because it is overloaded
+     * @throws ConditionFailedException thrown when the condition of a conditional request does not hold
+     */
+    private boolean admitAndRun(Transaction transaction) throws OverloadedException, ConditionFailedException {
+        try {
+            if (!admissionController.acquire()) {
+                ServerLog.log(Level.WARNING, String.format("Rejected transaction %s, coordinator overloaded. %s",
+                        transaction.getId(), admissionController.getMetrics()));
+                traceRecorder.end(transaction.getId(), TraceRecorder.ADMISSION, TraceRecorder.FAILED);
+                throw new OverloadedException("Coordinator is overloaded, please retry");
+            }
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            traceRecorder.end(transaction.getId(), TraceRecorder.ADMISSION, TraceRecorder.FAILED);
+            throw new OverloadedException("Interrupted while waiting for admission");
+        }
+        traceRecorder.end(transaction.getId(), TraceRecorder.ADMISSION, TraceRecorder.OK);
+
+        long start = System.nanoTime();
+        boolean success = false;
+        try {
+            success = run2PC(transaction);
+            return success;
+        } catch (ConditionFailedException cfe) {
+            // a failed condition is a normal answer, not a sign of overload
+            success = true;
+            throw cfe;
+        } finally {
+            admissionController.release(System.nanoTime() - start, success);
+        }
+    }
+
+    /**
+     * Run both phases of 2PC for an admitted transaction
+     * @param transaction input request by client
+     * @return true or false depending on 2PC output
+     * @throws ConditionFailedException thrown when the condition of a conditional request does not hold
+     */
+    private boolean run2PC(Transaction transaction) throws ConditionFailedException {
+        ServerLog.log(Level.INFO, "Initiating 2PC for transaction " + transaction.getId());
+        Acknowledgement prepared = prepareRound(transaction);
+        // an older transaction holds one of the keys: release the keys taken so far, back off
+        // and try again with the same id, so the transaction gets older and eventually wins
+        for (int attempt = 1; prepared == Acknowledgement.ACK_CONFLICT && attempt <= MAX_CONFLICT_RETRIES; attempt++) {
+            ServerLog.log(Level.INFO, String.format("Transaction %s conflicts with an older transaction, " +
+                    "retrying (attempt %s)", transaction.getId(), attempt));
+            conflictRetries.incrementAndGet();
+            abortRound(transaction);
+            try {
+                Thread.sleep(ThreadLocalRandom.current().nextInt(1, 2 + Math.min(attempt, 10)));
+            } catch (InterruptedException ie) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+            prepared = prepareRound(transaction);
+        }
+        if (prepared != Acknowledgement.ACK_READY) {
+            ServerLog.log(Level.INFO, "Broadcast prepare failed for transaction " + transaction.getId());
+            abortRound(transaction);
+            if (prepared == Acknowledgement.ACK_REJECTED) {
+                throw new ConditionFailedException(String.format("Condition of %s request for key %s does not hold",
+                        transaction.getRequest(), transaction.getKey()));
+            }
             return false;
         }
         ServerLog.log(Level.INFO, "Prepare phase of 2PC complete");
         transaction.setState(States.COMMIT);
-        if (!broadcastCommit(transaction)) {
-            ServerLog.log(Level.INFO, "Broadcast commit failed");
+        traceRecorder.start(transaction.getId(), TraceRecorder.COMMIT_ROUND);
+        boolean committed = broadcastCommit(transaction);
+        traceRecorder.end(transaction.getId(), TraceRecorder.COMMIT_ROUND,
+                committed ? TraceRecorder.OK : TraceRecorder.FAILED);
+        if (!committed) {
+            ServerLog.log(Level.INFO, "Broadcast commit failed for transaction " + transaction.getId());
             return false;
         }
         ServerLog.log(Level.INFO, "Commit phase of 2PC complete");
-        ServerLog.log(Level.INFO, String.format("%s request has been completed", transaction.getRequest()));
+        ServerLog.log(Level.INFO, String.format("%s request %s has been completed", transaction.getRequest(),
+                transaction.getId()));
         return true;
     }
 
+    /**
+     * @return current concurrency limit of the admission controller
+     */
+    int getAdmissionLimit() {
+        return admissionController.getLimit();
+    }
+
+    /**
+     * @return number of times a transaction was tried again because an older transaction held its key
+     */
+    long getConflictRetries() {
+        return conflictRetries.get();
+    }
+
+    private Acknowledgement prepareRound(Transaction transaction) {
+        traceRecorder.start(transaction.getId(), TraceRecorder.PREPARE_ROUND);
+        // every participant evaluates expiry at this time instead of by its own clock
+        transaction.setTimestamp(System.currentTimeMillis());
+        Acknowledgement prepared = broadcastPrepare(transaction);
+        traceRecorder.end(transaction.getId(), TraceRecorder.PREPARE_ROUND, TraceRecorder.outcomeOf(prepared));
+        return prepared;
+    }
+
+    private void abortRound(Transaction transaction) {
+        traceRecorder.start(transaction.getId(), TraceRecorder.ABORT_ROUND);
+        broadcastAbort(transaction);
+        traceRecorder.end(transaction.getId(), TraceRecorder.ABORT_ROUND, TraceRecorder.OK);
+    }
+
+    /**
+     * Write the recent phase timings of transactions run by the coordinator
+     * to a binary trace file, which can be read by TraceAnalyzer
+     * @return name of the trace file
+     * @throws RemoteException thrown when remote invocation fails or the file cannot be written
+     */
+    @Override
+    public String dumpTrace() throws RemoteException {
+        String path = coordinatorId == 0 ? "trace-coordinator.bin" : "trace-coordinator" + coordinatorId + ".bin";
+        try {
+            int events = traceRecorder.dump(path);
+            ServerLog.log(Level.INFO, String.format("Coordinator wrote %s trace events to %s", events, path));
+            return path;
+        } catch (IOException ioe) {
+            throw new RemoteException("Could not write trace file " + path, ioe);
+        }
+    }
+
+    /**
+     * Stop the coordinator: it is no longer exported and its threads end
+     * once the transactions in progress are done
+     */
+    void shutdown() {
+        try {
+            UnicastRemoteObject.unexportObject(this, true);
+        } catch (NoSuchObjectException nsoe) {
+            // not exported any more
+        }
+        executorService.shutdown();
+    }
+
+    /**
+     * Create the coordinators of a set of servers and connect them to each
+     * other. In the central mode one coordinator runs the transactions of all
+     * servers; in the distributed mode each server gets a coordinator of its
+     * own, which sends prepare and commit to all servers
+     * @param participants replica servers
+     * @param distributed true to give every server its own coordinator
+     * @param maxInFlight maximum number of transactions run at once by each coordinator
+     * @param maxQueueSize number of transactions allowed to wait for admission at each coordinator
+     * @param threads number of threads each coordinator uses to send requests to the participants
+     * @return coordinators, one for every server in the distributed mode
+     * @throws RemoteException thrown when a coordinator cannot be exported
+     */
+    static CoordinatorImpl[] connect(Participant[] participants, boolean distributed, int maxInFlight,
+                                     int maxQueueSize, int threads) throws RemoteException {
+        CoordinatorImpl[] coordinators = new CoordinatorImpl[distributed ? participants.length : 1];
+        for (int c = 0; c < coordinators.length; c++) {
+            coordinators[c] = new CoordinatorImpl(
+                    new AdmissionController(Math.min(2, maxInFlight), maxInFlight, maxQueueSize, 2000),
+                    distributed ? participants[c].getPartId() : 0, threads);
+            for (int i = 0; i < participants.length; i++) {
+                coordinators[c].addParticipant(participants[i], i);
+            }
+        }
+        for (int i = 0; i < participants.length; i++) {
+            participants[i].addCoordinator(coordinators[distributed ? i : 0]);
+        }
+        return coordinators;
+    }
+
     public static void main(String[] args) throws IOException {
         // disable logging to console log
         ServerLog.setUseParentHandlers(false);
@@ -196,6 +512,12 @@ public class CoordinatorImpl extends UnicastRemoteObject implements Coordinator
 
         ServerLog.addHandler(serverLogHandler);
 
+        // "distributed" as the last argument lets every server coordinate its own transactions
+        boolean distributed = args.length > 1 && args[args.length - 1].equalsIgnoreCase("distributed");
+        if (distributed) {
+            args = Arrays.copyOf(args, args.length - 1);
+        }
+
         // accept port number
         int port = 0;
         try {
@@ -205,20 +527,55 @@ public class CoordinatorImpl extends UnicastRemoteObject implements Coordinator
             ServerLog.log(Level.INFO, iae.getMessage());
         }
 
+        // optional admission control settings: max concurrent transactions and wait queue size
+        int maxInFlight = 10;
+        int maxQueueSize = 50;
+        // optional memory budget of each store in megabytes, 0 keeps everything in memory
+        long storeMemoryMegabytes = 0;
+        // optional size from which values are compressed, 0 disables compression
+        int compressionThreshold = 1024;
+        try {
+            if (args.length > 1) {
+                maxInFlight = parseInt(args[1]);
+            }
+            if (args.length > 2) {
+                maxQueueSize = parseInt(args[2]);
+            }
+            if (args.length > 3) {
+                storeMemoryMegabytes = parseInt(args[3]);
+            }
+            if (args.length > 4) {
+                compressionThreshold = parseInt(args[4]);
+            }
+        } catch (NumberFormatException nfe) {
+            System.out.println("Invalid server settings, using defaults");
+            ServerLog.log(Level.INFO, "Invalid server settings, using defaults");
+        }
+
+        // optional preset dictionary for compression, e.g. a typical JSON value
+        byte[] compressionDictionary = args.length > 5 ? Files.readAllBytes(Paths.get(args[5])) : null;
+
         Registry registry = LocateRegistry.createRegistry(port);
         Participant[] participants = new Participant[5];
 
         // bind the servers to the rmi registry
         try {
-            Coordinator coordinator = new CoordinatorImpl();
-            registry.rebind("Coordinator", coordinator);
-            System.out.println("Starting the Coordinator...");
-            ServerLog.log(Level.INFO, "Starting the Coordinator...");
             for (int i = 0; i < 5; i++) {
-                participants[i] = new ParticipantImpl(i + 1);
-                participants[i].addCoordinator(coordinator);
+                ValueCompression valueCompression = new ValueCompression(compressionThreshold,
+                        new DeflateCodec(1, compressionDictionary), new DeflateCodec(1));
+                participants[i] = new ParticipantImpl(i + 1, storeMemoryMegabytes * 1024 * 1024, valueCompression);
+            }
+            String starting = distributed ? "Starting a Coordinator on every server..." : "Starting the Coordinator...";
+            System.out.println(starting);
+            ServerLog.log(Level.INFO, starting);
+            CoordinatorImpl[] coordinators = connect(participants, distributed, maxInFlight, maxQueueSize,
+                    DEFAULT_THREADS);
+            for (CoordinatorImpl coordinator : coordinators) {
+                int id = coordinator.coordinatorId;
+                registry.rebind(id == 0 ? "Coordinator" : "Coordinator" + id, coordinator);
+            }
+            for (int i = 0; i < 5; i++) {
                 registry.rebind("participant"+i, participants[i]);
-                coordinator.addParticipant(participants[i], i);
                 System.out.printf("Server number %s has been added.\n", i + 1);
             }
         } catch (RemoteException re) {
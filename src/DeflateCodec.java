@@ -0,0 +1,104 @@
+import java.io.ByteArrayOutputStream;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Value codec using the DEFLATE implementation of the JDK. An optional
+ * preset dictionary, for example a typical JSON value, lets small values
+ * refer to common strings without having to contain them first. The
+ * length of the uncompressed value is stored in front of the compressed
+ * bytes so decompression can allocate the output at once.
+ */
+public class DeflateCodec implements ValueCodec {
+    private final char id;
+    private final int level;
+    private final byte[] dictionary;
+
+    /**
+     * Create a codec without a dictionary
+     * @param level compression level between 1 (fastest) and 9 (smallest)
+     */
+    public DeflateCodec(int level) {
+        this(level, null);
+    }
+
+    /**
+     * Create a codec with a preset dictionary. Every server has to be
+     * given the same dictionary to read the values
+     * @param level compression level between 1 (fastest) and 9 (smallest)
+     * @param dictionary preset dictionary, null for none
+     */
+    public DeflateCodec(int level, byte[] dictionary) {
+        if (level < Deflater.BEST_SPEED || level > Deflater.BEST_COMPRESSION) {
+            throw new IllegalArgumentException("Compression level must be between 1 and 9");
+        }
+        this.level = level;
+        this.dictionary = dictionary;
+        this.id = dictionary == null ? 'D' : 'd';
+    }
+
+    @Override
+    public char getId() {
+        return id;
+    }
+
+    @Override
+    public byte[] compress(byte[] data) {
+        Deflater deflater = new Deflater(level, true);
+        try {
+            if (dictionary != null) {
+                deflater.setDictionary(dictionary);
+            }
+            deflater.setInput(data);
+            deflater.finish();
+            ByteArrayOutputStream output = new ByteArrayOutputStream(data.length / 2 + 16);
+            writeLength(output, data.length);
+            byte[] buffer = new byte[Math.max(64, Math.min(data.length, 8192))];
+            while (!deflater.finished()) {
+                int count = deflater.deflate(buffer);
+                output.write(buffer, 0, count);
+            }
+            return output.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    @Override
+    public byte[] decompress(byte[] data) {
+        Inflater inflater = new Inflater(true);
+        try {
+            int length = readLength(data);
+            inflater.setInput(data, 4, data.length - 4);
+            if (dictionary != null) {
+                inflater.setDictionary(dictionary);
+            }
+            byte[] output = new byte[length];
+            int offset = 0;
+            while (offset < length) {
+                int count = inflater.inflate(output, offset, length - offset);
+                if (count == 0 && (inflater.finished() || inflater.needsInput())) {
+                    throw new IllegalStateException("Compressed value is truncated");
+                }
+                offset += count;
+            }
+            return output;
+        } catch (DataFormatException dfe) {
+            throw new IllegalStateException("Compressed value is corrupt", dfe);
+        } finally {
+            inflater.end();
+        }
+    }
+
+    private static void writeLength(ByteArrayOutputStream output, int length) {
+        output.write(length >>> 24);
+        output.write(length >>> 16);
+        output.write(length >>> 8);
+        output.write(length);
+    }
+
+    private static int readLength(byte[] data) {
+        return ((data[0] & 0xFF) << 24) | ((data[1] & 0xFF) << 16) | ((data[2] & 0xFF) << 8) | (data[3] & 0xFF);
+    }
+}
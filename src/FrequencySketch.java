@@ -0,0 +1,88 @@
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * Approximate access frequency of keys, used by the store to decide
+ * which entries stay in memory. A count-min sketch with four rows of
+ * small counters is used; all counters are halved periodically so
+ * keys that were popular a long time ago lose their advantage.
+ * Counters are updated with compare-and-set, so recording an access
+ * takes no lock. The thread whose access reaches the reset threshold
+ * halves the counters while others keep counting; an access counted
+ * during the halving may be halved or not, which the estimate tolerates.
+ */
+public class FrequencySketch {
+    private static final int ROWS = 4;
+    private static final int MAX_COUNT = 15;
+    private static final int[] SEEDS = {0x9E3779B9, 0x85EBCA6B, 0xC2B2AE35, 0x27D4EB2F};
+
+    // the counters of all rows, one row after the other
+    private final AtomicIntegerArray counters;
+    private final int width;
+    private final int mask;
+    private final int resetThreshold;
+    private final AtomicInteger additions = new AtomicInteger();
+
+    /**
+     * Create a sketch sized for the expected number of distinct keys
+     * @param expectedKeys expected number of keys, rounded up to a power of two
+     */
+    public FrequencySketch(int expectedKeys) {
+        int width = Integer.highestOneBit(Math.max(16, expectedKeys - 1) << 1);
+        this.counters = new AtomicIntegerArray(ROWS * width);
+        this.width = width;
+        this.mask = width - 1;
+        this.resetThreshold = 10 * width;
+    }
+
+    /**
+     * Record one access of a key
+     * @param key accessed key
+     */
+    public void increment(String key) {
+        int hash = spread(key.hashCode());
+        for (int row = 0; row < ROWS; row++) {
+            int index = index(hash, row);
+            int count;
+            do {
+                count = counters.get(index);
+            } while (count < MAX_COUNT && !counters.compareAndSet(index, count, count + 1));
+        }
+        // the count only grows by one at a time, so exactly one thread sees the threshold
+        if (additions.incrementAndGet() == resetThreshold) {
+            age();
+        }
+    }
+
+    /**
+     * Estimate how often a key has been accessed recently
+     * @param key key to look up
+     * @return estimated number of recent accesses
+     */
+    public int frequency(String key) {
+        int hash = spread(key.hashCode());
+        int frequency = MAX_COUNT;
+        for (int row = 0; row < ROWS; row++) {
+            frequency = Math.min(frequency, counters.get(index(hash, row)));
+        }
+        return frequency;
+    }
+
+    private void age() {
+        for (int i = 0; i < counters.length(); i++) {
+            counters.getAndUpdate(i, count -> count >> 1);
+        }
+        additions.addAndGet(-resetThreshold / 2);
+    }
+
+    private int index(int hash, int row) {
+        int h = hash * SEEDS[row];
+        return row * width + ((h ^ (h >>> 16)) & mask);
+    }
+
+    private static int spread(int hash) {
+        hash ^= hash >>> 16;
+        hash *= 0x45D9F3B;
+        return hash ^ (hash >>> 16);
+    }
+}
@@ -0,0 +1,28 @@
+import java.rmi.Remote;
+import java.rmi.RemoteException;
+
+/**
+ * Callback used by clients that keep a near cache of the
+ * key value store. Participants notify subscribed listeners
+ * whenever a PUT or DEL has been committed for a key, so the
+ * cached copy of that key can be dropped. A cache which falls too
+ * far behind is told to drop everything instead.
+ */
+public interface InvalidationListener extends Remote {
+    /**
+     * Invalidate the cached entry for a key after it has been
+     * updated or removed by a commit
+     * @param key key that was changed by the commit
+     * @param commitTimeMillis time at which the participant applied the commit
+     * @throws RemoteException thrown when remote invocation fails
+     */
+    void invalidate(String key, long commitTimeMillis) throws RemoteException;
+
+    /**
+     * Invalidate every cached entry, sent instead of single keys when
+     * the invalidations for this cache queued up faster than it took them
+     * @param commitTimeMillis time of the oldest commit that was not sent
+     * @throws RemoteException thrown when remote invocation fails
+     */
+    void invalidateAll(long commitTimeMillis) throws RemoteException;
+}
@@ -1,5 +1,6 @@
 import java.rmi.Remote;
 import java.rmi.RemoteException;
+import java.util.List;
 
 /**
  * Used to maintain a key value store by implementing
@@ -17,6 +18,16 @@ public interface KeyValueStore extends Remote {
      */
     String getFromKeyValue(String key) throws RemoteException;
 
+    /**
+     * Get value from the key value store based on key provided,
+     * treating keys which expired at the given time as missing
+     * @param key input for which value is required
+     * @param now time in milliseconds at which expiry is evaluated
+     * @return value of key from store
+     * @throws RemoteException thrown when remote method invocation fails
+     */
+    String getFromKeyValue(String key, long now) throws RemoteException;
+
     /**
      * Put key and value into the store
      * @param key input to store
@@ -25,6 +36,25 @@ public interface KeyValueStore extends Remote {
      */
     void putToKeyValue(String key, String value) throws RemoteException;
 
+    /**
+     * Put key and value into the store, to expire at the given time
+     * @param key input to store
+     * @param value input to store
+     * @param expiresAt time in milliseconds after which the key is treated as missing
+     * @throws RemoteException thrown when remote method invocation fails
+     */
+    void putToKeyValue(String key, String value, long expiresAt) throws RemoteException;
+
+    /**
+     * Put key and value into the store, keeping the expiry time of the
+     * key if it has not expired at the given time
+     * @param key input to store
+     * @param value input to store
+     * @param now time in milliseconds at which expiry is evaluated
+     * @throws RemoteException thrown when remote method invocation fails
+     */
+    void updateKeyValue(String key, String value, long now) throws RemoteException;
+
     /**
      * Delete key and value entry from store based
      * on key provided
@@ -33,6 +63,15 @@ public interface KeyValueStore extends Remote {
      */
     void deleteFromKeyValue(String key) throws RemoteException;
 
+    /**
+     * Delete key and value entry from store based on key provided,
+     * treating keys which expired at the given time as missing
+     * @param key input for which key-value have to be removed
+     * @param now time in milliseconds at which expiry is evaluated
+     * @throws RemoteException thrown when remote method invocation fails
+     */
+    void deleteFromKeyValue(String key, long now) throws RemoteException;
+
     /**
      * Check if key is present in store or not
      * @param key input key
@@ -40,4 +79,59 @@ public interface KeyValueStore extends Remote {
      * @throws RemoteException thrown when remote method invocation fails
      */
     boolean containsKey(String key) throws RemoteException;
+
+    /**
+     * Check if key is present in store at the given time
+     * @param key input key
+     * @param now time in milliseconds at which expiry is evaluated
+     * @return true or false depending on if key present in store
+     * @throws RemoteException thrown when remote method invocation fails
+     */
+    boolean containsKey(String key, long now) throws RemoteException;
+
+    /**
+     * Get the version of a key. The version is increased every time
+     * the key is put into the store and does not start again when the
+     * key is deleted or expires
+     * @param key input key
+     * @return version of the key, 0 if key is not present in store
+     * @throws RemoteException thrown when remote method invocation fails
+     */
+    long getVersion(String key) throws RemoteException;
+
+    /**
+     * Get the version of a key, treating keys which expired at the
+     * given time as missing
+     * @param key input key
+     * @param now time in milliseconds at which expiry is evaluated
+     * @return version of the key, 0 if key is not present in store
+     * @throws RemoteException thrown when remote method invocation fails
+     */
+    long getVersion(String key, long now) throws RemoteException;
+
+    /**
+     * Get the keys which have expired since the last call
+     * and are still waiting to be removed
+     * @param now current time in milliseconds
+     * @return expired keys
+     * @throws RemoteException thrown when remote method invocation fails
+     */
+    List<String> expiredKeys(long now) throws RemoteException;
+
+    /**
+     * Remove the given keys if they expired at or before the given time
+     * @param keys keys to remove
+     * @param expiredBefore only keys expiring at or before this time are removed
+     * @return keys which were removed
+     * @throws RemoteException thrown when remote method invocation fails
+     */
+    List<String> removeExpired(List<String> keys, long expiredBefore) throws RemoteException;
+
+    /**
+     * Get a summary of the memory use, hit ratio and disk
+     * read latency of the store
+     * @return one line summary of the store metrics
+     * @throws RemoteException thrown when remote method invocation fails
+     */
+    String getMetrics() throws RemoteException;
 }
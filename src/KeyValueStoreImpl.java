@@ -1,27 +1,101 @@
+import java.io.File;
 import java.rmi.RemoteException;
 import java.rmi.server.UnicastRemoteObject;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Objects;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 /**
  * Implementing the key value store through the
- * get, put and delete operations
+ * get, put and delete operations. Entries can be given
+ * an expiry time; expired entries are treated as missing
+ * and are found through a timer wheel so they can be removed.
+ * The store can be given a memory budget, in which case cold
+ * values are spilled to a segment file on disk and read back
+ * from there when requested. The budget covers the keys and values
+ * held in memory; the versions, expiry times, timer wheel entries,
+ * recency order and spill file index are kept on the heap for every
+ * key and are not counted against it.
  */
 public class KeyValueStoreImpl extends UnicastRemoteObject implements KeyValueStore {
+    // rough per-entry overhead of the map node, entry and two String headers
+    private static final int ENTRY_OVERHEAD_BYTES = 96;
+
     protected ConcurrentHashMap<String, String> keyValueStore = new ConcurrentHashMap<>();
+    // versions are kept after a key is deleted or expires, so a key put again gets a higher version
+    // and a CASV request cannot match the version of a value which no longer exists
+    protected ConcurrentHashMap<String, Long> versions = new ConcurrentHashMap<>();
+    protected ConcurrentHashMap<String, Long> expiries = new ConcurrentHashMap<>();
+    // 100ms ticks with 3 levels cover about 7 hours before using the overflow list
+    private final TimerWheel expiryWheel = new TimerWheel(100, 3);
+
+    // memory budget for values kept in keyValueStore, 0 when the store is unbounded
+    private final long memoryBudgetBytes;
+    private final SegmentFile spillFile;
+    private final FrequencySketch frequencySketch;
+    // keys held in memory, least recently used first, and their size, guarded by tierLock
+    private final LinkedHashMap<String, Boolean> recency = new LinkedHashMap<>(16, 0.75f, true);
+    private final ReentrantLock tierLock = new ReentrantLock();
+    private long memoryBytes = 0;
+    // a value moves between memory and disk only while holding the stripe of its key, taken before tierLock
+    private final Object[] keyLocks = new Object[64];
+
+    private final AtomicLong memoryHits = new AtomicLong();
+    private final AtomicLong diskHits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong spills = new AtomicLong();
+    private final AtomicLong totalDiskReadNanos = new AtomicLong();
+    private final AtomicLong maxDiskReadNanos = new AtomicLong();
 
     /**
      * Explicit constructor to declare RemoteException
      */
     public KeyValueStoreImpl() throws RemoteException {
         super();
+        this.memoryBudgetBytes = 0;
+        this.spillFile = null;
+        this.frequencySketch = null;
+    }
+
+    /**
+     * Create a store which keeps at most the given amount of values in
+     * memory and spills the rest to a segment file
+     * @param memoryBudgetBytes memory budget for keys and values
+     * @param spillPath location of the segment file
+     * @throws RemoteException thrown when the store cannot be exported
+     */
+    public KeyValueStoreImpl(long memoryBudgetBytes, File spillPath) throws RemoteException {
+        super();
+        if (memoryBudgetBytes <= 0) {
+            throw new IllegalArgumentException("Memory budget must be positive");
+        }
+        this.memoryBudgetBytes = memoryBudgetBytes;
+        this.spillFile = new SegmentFile(spillPath);
+        this.frequencySketch = new FrequencySketch((int) Math.min(1 << 20, memoryBudgetBytes / 256));
+        for (int i = 0; i < keyLocks.length; i++) {
+            keyLocks[i] = new Object();
+        }
+    }
+
+    /**
+     * Stop the background compaction of the spill file, if the store has one
+     */
+    void shutdown() {
+        if (spillFile != null) {
+            spillFile.close();
+        }
     }
 
     /**
      * Get value from the key value store based on
-     * key provided. If key is not present, an exception
-     * is thrown
+     * key provided. If key is not present or has expired,
+     * an exception is thrown
      *
      * @param key input for which value is required
      * @return value of key from store
@@ -29,16 +103,35 @@ public class KeyValueStoreImpl extends UnicastRemoteObject implements KeyValueSt
     @Override
     public String getFromKeyValue(String key) throws RemoteException {
 //        ServerLog.log(Level.INFO, String.format("Client made a GET request for key %s", key));
-        if (!keyValueStore.containsKey(key)) {
+        return getFromKeyValue(key, System.currentTimeMillis());
+    }
+
+    /**
+     * Get value from the key value store based on key provided,
+     * treating keys which expired at the given time as missing.
+     * If key is not present, an exception is thrown
+     *
+     * @param key input for which value is required
+     * @param now time in milliseconds at which expiry is evaluated
+     * @return value of key from store
+     */
+    @Override
+    public String getFromKeyValue(String key, long now) throws RemoteException {
+        String value = isExpired(key, now) ? null : spillFile == null ? keyValueStore.get(key) : getFromTiers(key);
+        if (value == null) {
+            misses.incrementAndGet();
             throw new IllegalArgumentException(
                     "This key is not present in key value store");
         }
-        return keyValueStore.get(key);
+        if (spillFile == null) {
+            memoryHits.incrementAndGet();
+        }
+        return value;
     }
 
     /**
      * Put key and value into the store. If key is already
-     * present, the value is updated
+     * present, the value is updated and any expiry is cleared
      *
      * @param key   input to store
      * @param value input to store
@@ -46,7 +139,45 @@ public class KeyValueStoreImpl extends UnicastRemoteObject implements KeyValueSt
     @Override
     public void putToKeyValue(String key, String value) throws RemoteException {
 //        ServerLog.log(Level.INFO, String.format("Client made a PUT request for key %s and value %s", key, value));
-        keyValueStore.put(key, value);
+        putValue(key, value);
+        versions.merge(key, 1L, Long::sum);
+        expiries.remove(key);
+    }
+
+    /**
+     * Put key and value into the store, to expire at the given time.
+     * If key is already present, the value and expiry are updated
+     *
+     * @param key   input to store
+     * @param value input to store
+     * @param expiresAt time in milliseconds after which the key is treated as missing
+     */
+    @Override
+    public void putToKeyValue(String key, String value, long expiresAt) throws RemoteException {
+        putValue(key, value);
+        versions.merge(key, 1L, Long::sum);
+        expiries.put(key, expiresAt);
+        expiryWheel.schedule(key, expiresAt);
+    }
+
+    /**
+     * Put key and value into the store, keeping the expiry time of the
+     * key if it has not expired at the given time. A key which expired
+     * or had no expiry is stored without one
+     *
+     * @param key   input to store
+     * @param value input to store
+     * @param now time in milliseconds at which expiry is evaluated
+     */
+    @Override
+    public void updateKeyValue(String key, String value, long now) throws RemoteException {
+        if (!expiries.containsKey(key) || isExpired(key, now)) {
+            putToKeyValue(key, value);
+            return;
+        }
+        // the expiry and its timer wheel entry stay as they are
+        putValue(key, value);
+        versions.merge(key, 1L, Long::sum);
     }
 
     /**
@@ -59,15 +190,30 @@ public class KeyValueStoreImpl extends UnicastRemoteObject implements KeyValueSt
     @Override
     public void deleteFromKeyValue(String key) throws RemoteException {
 //        ServerLog.log(Level.INFO, String.format("Client made a DELETE request for key %s", key));
-        if (!keyValueStore.containsKey(key)) {
+        deleteFromKeyValue(key, System.currentTimeMillis());
+    }
+
+    /**
+     * Delete key and value entry from store based on key provided,
+     * treating keys which expired at the given time as missing.
+     * If key is not present, an exception is thrown
+     *
+     * @param key input for which key-value have to be removed
+     * @param now time in milliseconds at which expiry is evaluated
+     */
+    @Override
+    public void deleteFromKeyValue(String key, long now) throws RemoteException {
+        if (!containsKey(key, now)) {
             throw new IllegalArgumentException(
                     "This key is not present in key value store");
         }
-        keyValueStore.remove(key);
+        removeValue(key);
+        expiries.remove(key);
     }
 
     /**
-     * Check if key is present in store or not
+     * Check if key is present in store or not. Expired
+     * keys are not present
      *
      * @param key input key
      * @return true or false depending on if key present in store
@@ -75,6 +221,321 @@ public class KeyValueStoreImpl extends UnicastRemoteObject implements KeyValueSt
      */
     @Override
     public boolean containsKey(String key) throws RemoteException {
-        return keyValueStore.containsKey(key);
+        return containsKey(key, System.currentTimeMillis());
+    }
+
+    /**
+     * Check if key is present in store at the given time. Keys
+     * which expired at or before that time are not present
+     *
+     * @param key input key
+     * @param now time in milliseconds at which expiry is evaluated
+     * @return true or false depending on if key present in store
+     * @throws RemoteException thrown when remote method invocation fails
+     */
+    @Override
+    public boolean containsKey(String key, long now) throws RemoteException {
+        if (isExpired(key, now)) {
+            return false;
+        }
+        if (spillFile == null) {
+            return keyValueStore.containsKey(key);
+        }
+        if (keyValueStore.containsKey(key)) {
+            return true;
+        }
+        // values move between memory and disk under the key's stripe
+        synchronized (keyLock(key)) {
+            return keyValueStore.containsKey(key) || spillFile.contains(key);
+        }
+    }
+
+    /**
+     * Get the version of a key. The version is increased every time
+     * the key is put into the store and does not start again when the
+     * key is deleted or expires
+     *
+     * @param key input key
+     * @return version of the key, 0 if key is not present in store
+     * @throws RemoteException thrown when remote method invocation fails
+     */
+    @Override
+    public long getVersion(String key) throws RemoteException {
+        return getVersion(key, System.currentTimeMillis());
+    }
+
+    /**
+     * Get the version of a key, treating keys which expired at
+     * the given time as missing
+     *
+     * @param key input key
+     * @param now time in milliseconds at which expiry is evaluated
+     * @return version of the key, 0 if key is not present in store
+     * @throws RemoteException thrown when remote method invocation fails
+     */
+    @Override
+    public long getVersion(String key, long now) throws RemoteException {
+        return containsKey(key, now) ? versions.getOrDefault(key, 0L) : 0;
+    }
+
+    /**
+     * Advance the expiry timer wheel and get the keys which have
+     * expired since the last call and are still waiting to be removed
+     *
+     * @param now current time in milliseconds
+     * @return expired keys
+     * @throws RemoteException thrown when remote method invocation fails
+     */
+    @Override
+    public List<String> expiredKeys(long now) throws RemoteException {
+        List<String> expired = new ArrayList<>();
+        for (TimerWheel.Entry entry : expiryWheel.advance(now)) {
+            // entries whose key was updated or deleted since they were scheduled are ignored
+            if (Objects.equals(expiries.get(entry.getKey()), entry.getExpiresAt())) {
+                expired.add(entry.getKey());
+            }
+        }
+        return expired;
+    }
+
+    /**
+     * Remove the given keys if they expired at or before the given time.
+     * Keys which were updated in the meantime are kept
+     *
+     * @param keys keys to remove
+     * @param expiredBefore only keys expiring at or before this time are removed
+     * @return keys which were removed
+     * @throws RemoteException thrown when remote method invocation fails
+     */
+    @Override
+    public List<String> removeExpired(List<String> keys, long expiredBefore) throws RemoteException {
+        List<String> removed = new ArrayList<>();
+        for (String key : keys) {
+            Long expiresAt = expiries.get(key);
+            if (expiresAt != null && expiresAt <= expiredBefore) {
+                removeValue(key);
+                expiries.remove(key);
+                removed.add(key);
+            }
+        }
+        return removed;
+    }
+
+    /**
+     * Get a summary of the memory use, hit ratio and disk
+     * read latency of the store
+     *
+     * @return one line summary of the store metrics
+     * @throws RemoteException thrown when remote method invocation fails
+     */
+    @Override
+    public String getMetrics() throws RemoteException {
+        long memory = memoryHits.get();
+        long disk = diskHits.get();
+        long lookups = memory + disk + misses.get();
+        String metrics = String.format("Store: keys=%d, memoryHits=%d, diskHits=%d, misses=%d, memoryHitRatio=%.2f%%",
+                keyValueStore.size() + (spillFile == null ? 0 : spillFile.size()), memory, disk, misses.get(),
+                lookups == 0 ? 0.0 : 100.0 * memory / lookups);
+        if (spillFile == null) {
+            return metrics;
+        }
+        tierLock.lock();
+        try {
+            return metrics + String.format(", memory=%d/%d bytes, inMemory=%d, onDisk=%d, spills=%d, " +
+                            "avgDiskRead=%.3fms, maxDiskRead=%.3fms", memoryBytes, memoryBudgetBytes,
+                    keyValueStore.size(), spillFile.size(), spills.get(),
+                    disk == 0 ? 0.0 : totalDiskReadNanos.get() / 1e6 / disk, maxDiskReadNanos.get() / 1e6);
+        } finally {
+            tierLock.unlock();
+        }
+    }
+
+    private boolean isExpired(String key, long now) {
+        Long expiresAt = expiries.get(key);
+        return expiresAt != null && expiresAt <= now;
+    }
+
+    /**
+     * Read a value from memory or, if it was spilled, from disk. A value read
+     * from disk is moved back to memory if it is accessed more often than the
+     * value which would have to make room for it. Memory hits take no lock;
+     * a disk read only holds the lock of the key's stripe
+     */
+    private String getFromTiers(String key) {
+        frequencySketch.increment(key);
+        String value = keyValueStore.get(key);
+        if (value != null) {
+            touch(key);
+            memoryHits.incrementAndGet();
+            return value;
+        }
+        synchronized (keyLock(key)) {
+            // values only move between memory and disk under the key's stripe, so the value is in one of them
+            value = keyValueStore.get(key);
+            if (value != null) {
+                touch(key);
+                memoryHits.incrementAndGet();
+                return value;
+            }
+            long start = System.nanoTime();
+            value = spillFile.read(key);
+            if (value == null) {
+                return null;
+            }
+            long readNanos = System.nanoTime() - start;
+            totalDiskReadNanos.addAndGet(readNanos);
+            maxDiskReadNanos.accumulateAndGet(readNanos, Math::max);
+            diskHits.incrementAndGet();
+            if (storeInMemory(key, value)) {
+                spillFile.remove(key);
+            }
+        }
+        evictOverBudget();
+        spillFile.compactIfNeeded();
+        return value;
+    }
+
+    private void putValue(String key, String value) {
+        if (spillFile == null) {
+            keyValueStore.put(key, value);
+            return;
+        }
+        frequencySketch.increment(key);
+        synchronized (keyLock(key)) {
+            // the new value is in place before the old one is dropped from the other tier
+            if (storeInMemory(key, value)) {
+                spillFile.remove(key);
+            } else {
+                spillFile.write(key, value);
+                spills.incrementAndGet();
+                removeFromMemory(key);
+            }
+        }
+        evictOverBudget();
+        spillFile.compactIfNeeded();
+    }
+
+    private void removeValue(String key) {
+        if (spillFile == null) {
+            keyValueStore.remove(key);
+            return;
+        }
+        synchronized (keyLock(key)) {
+            removeFromMemory(key);
+            spillFile.remove(key);
+        }
+        spillFile.compactIfNeeded();
+    }
+
+    /**
+     * Move a key to the most recently used end. Skipped if another thread
+     * holds the tier lock, so memory hits never wait; a missed move only
+     * makes the key a little more likely to be spilled
+     */
+    private void touch(String key) {
+        if (tierLock.tryLock()) {
+            try {
+                recency.get(key);
+            } finally {
+                tierLock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Keep a value in memory if the admission policy lets it in, replacing
+     * any value of the key already in memory. Must hold the key's stripe
+     * @return true if the value is now in memory
+     */
+    private boolean storeInMemory(String key, String value) {
+        long size = entrySize(key, value);
+        tierLock.lock();
+        try {
+            String previous = keyValueStore.get(key);
+            long previousSize = previous == null ? 0 : entrySize(key, previous);
+            if (!admit(key, size - previousSize)) {
+                return false;
+            }
+            keyValueStore.put(key, value);
+            recency.put(key, Boolean.TRUE);
+            memoryBytes += size - previousSize;
+            return true;
+        } finally {
+            tierLock.unlock();
+        }
+    }
+
+    /**
+     * Decide if a value may be kept in memory. When memory is full the
+     * value is only admitted if its key is accessed more often than the
+     * least recently used key, which would be spilled to make room.
+     * Must hold the tier lock
+     */
+    private boolean admit(String key, long size) {
+        if (memoryBytes + size <= memoryBudgetBytes) {
+            return true;
+        }
+        if (size > memoryBudgetBytes || recency.isEmpty()) {
+            return false;
+        }
+        String victim = recency.keySet().iterator().next();
+        return frequencySketch.frequency(key) > frequencySketch.frequency(victim);
+    }
+
+    /**
+     * Spill least recently used values until memory is within the budget.
+     * Each victim is picked under the tier lock and written to disk under
+     * its own stripe, so no thread holds two stripes or the tier lock
+     * while writing to disk
+     */
+    private void evictOverBudget() {
+        while (true) {
+            String victim;
+            tierLock.lock();
+            try {
+                if (memoryBytes <= memoryBudgetBytes || recency.size() <= 1) {
+                    return;
+                }
+                victim = recency.keySet().iterator().next();
+            } finally {
+                tierLock.unlock();
+            }
+            synchronized (keyLock(victim)) {
+                String victimValue = keyValueStore.get(victim);
+                // removed or spilled by another thread since it was picked
+                if (victimValue == null) {
+                    continue;
+                }
+                spillFile.write(victim, victimValue);
+                removeFromMemory(victim);
+                spills.incrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * Drop a value from memory, must hold the key's stripe
+     */
+    private void removeFromMemory(String key) {
+        tierLock.lock();
+        try {
+            String previous = keyValueStore.remove(key);
+            if (previous != null) {
+                recency.remove(key);
+                memoryBytes -= entrySize(key, previous);
+            }
+        } finally {
+            tierLock.unlock();
+        }
+    }
+
+    private Object keyLock(String key) {
+        return keyLocks[Math.floorMod(key.hashCode(), keyLocks.length)];
+    }
+
+    private static long entrySize(String key, String value) {
+        // compressed values are held with one byte per character
+        long valueBytes = ValueCompression.isCompressed(value) ? value.length() : 2L * value.length();
+        return ENTRY_OVERHEAD_BYTES + 2L * key.length() + valueBytes;
     }
 }
@@ -0,0 +1,179 @@
+import java.rmi.RemoteException;
+import java.rmi.server.UnicastRemoteObject;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded client-side cache of GET responses. Entries are evicted
+ * in least recently used order once the configured size is reached,
+ * and are removed when a participant reports that the key has been
+ * changed by a commit. Hit rate, invalidation lag and an estimate of
+ * the memory used are kept as metrics.
+ */
+public class NearCache extends UnicastRemoteObject implements InvalidationListener {
+    // rough per-entry overhead of the map node, entry and two String headers
+    private static final int ENTRY_OVERHEAD_BYTES = 96;
+
+    private final int maxEntries;
+    private final LinkedHashMap<String, String> entries;
+    private long estimatedBytes = 0;
+    // bumped on every invalidation so that a GET racing with a commit is not cached
+    private long invalidationEpoch = 0;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+    private final AtomicLong invalidations = new AtomicLong();
+    private final AtomicLong totalInvalidationLagMillis = new AtomicLong();
+    private final AtomicLong maxInvalidationLagMillis = new AtomicLong();
+
+    /**
+     * Create a near cache holding at most the given number of entries
+     * @param maxEntries maximum number of keys kept in the cache
+     * @throws RemoteException thrown when the cache cannot be exported for callbacks
+     */
+    public NearCache(int maxEntries) throws RemoteException {
+        super();
+        if (maxEntries <= 0) {
+            throw new IllegalArgumentException("Near cache size must be positive");
+        }
+        this.maxEntries = maxEntries;
+        this.entries = new LinkedHashMap<>(16, 0.75f, true);
+    }
+
+    /**
+     * Get the cached value of a key
+     * @param key key to look up
+     * @return cached value or null if the key is not cached
+     */
+    public synchronized String get(String key) {
+        String value = entries.get(key);
+        if (value == null) {
+            misses.incrementAndGet();
+        } else {
+            hits.incrementAndGet();
+        }
+        return value;
+    }
+
+    /**
+     * Current invalidation epoch. It should be read before fetching a
+     * value from a server and passed to {@link #put(String, String, long)}.
+     * @return current invalidation epoch
+     */
+    public synchronized long epoch() {
+        return invalidationEpoch;
+    }
+
+    /**
+     * Cache a value fetched from a server. The value is only cached if no
+     * invalidation arrived since the epoch was read, otherwise it may be stale.
+     * @param key key fetched from the server
+     * @param value value returned by the server
+     * @param epoch invalidation epoch read before the fetch
+     */
+    public synchronized void put(String key, String value, long epoch) {
+        if (epoch != invalidationEpoch || value == null) {
+            return;
+        }
+        String previous = entries.put(key, value);
+        if (previous != null) {
+            estimatedBytes -= entrySize(key, previous);
+        }
+        estimatedBytes += entrySize(key, value);
+
+        while (entries.size() > maxEntries) {
+            Map.Entry<String, String> eldest = entries.entrySet().iterator().next();
+            estimatedBytes -= entrySize(eldest.getKey(), eldest.getValue());
+            entries.remove(eldest.getKey());
+            evictions.incrementAndGet();
+        }
+    }
+
+    /**
+     * Drop a key from the cache, used after this client changed the key itself
+     * @param key key to remove
+     */
+    public synchronized void remove(String key) {
+        invalidationEpoch++;
+        String previous = entries.remove(key);
+        if (previous != null) {
+            estimatedBytes -= entrySize(key, previous);
+        }
+    }
+
+    /**
+     * Invalidate the cached entry for a key after it has been
+     * updated or removed by a commit
+     * @param key key that was changed by the commit
+     * @param commitTimeMillis time at which the participant applied the commit
+     * @throws RemoteException thrown when remote invocation fails
+     */
+    @Override
+    public void invalidate(String key, long commitTimeMillis) throws RemoteException {
+        remove(key);
+        long lag = Math.max(0, System.currentTimeMillis() - commitTimeMillis);
+        invalidations.incrementAndGet();
+        totalInvalidationLagMillis.addAndGet(lag);
+        maxInvalidationLagMillis.accumulateAndGet(lag, Math::max);
+    }
+
+    /**
+     * Drop every cached entry after the participant could not keep up
+     * with sending the invalidations of single keys
+     * @param commitTimeMillis time of the oldest commit that was not sent
+     * @throws RemoteException thrown when remote invocation fails
+     */
+    @Override
+    public void invalidateAll(long commitTimeMillis) throws RemoteException {
+        synchronized (this) {
+            invalidationEpoch++;
+            entries.clear();
+            estimatedBytes = 0;
+        }
+        long lag = Math.max(0, System.currentTimeMillis() - commitTimeMillis);
+        invalidations.incrementAndGet();
+        totalInvalidationLagMillis.addAndGet(lag);
+        maxInvalidationLagMillis.accumulateAndGet(lag, Math::max);
+    }
+
+    /**
+     * @return fraction of lookups answered from the cache
+     */
+    public double getHitRate() {
+        long h = hits.get();
+        long total = h + misses.get();
+        return total == 0 ? 0.0 : (double) h / total;
+    }
+
+    /**
+     * @return average time between a commit and its invalidation reaching this cache
+     */
+    public double getAverageInvalidationLagMillis() {
+        long count = invalidations.get();
+        return count == 0 ? 0.0 : (double) totalInvalidationLagMillis.get() / count;
+    }
+
+    /**
+     * @return estimated heap used by the cached keys and values
+     */
+    public synchronized long getEstimatedBytes() {
+        return estimatedBytes;
+    }
+
+    /**
+     * @return one line summary of the cache metrics
+     */
+    public synchronized String getMetrics() {
+        return String.format("Near cache: entries=%d/%d, hits=%d, misses=%d, hitRate=%.2f%%, evictions=%d, " +
+                        "invalidations=%d, avgInvalidationLag=%.1fms, maxInvalidationLag=%dms, memory=%d bytes",
+                entries.size(), maxEntries, hits.get(), misses.get(), getHitRate() * 100, evictions.get(),
+                invalidations.get(), getAverageInvalidationLagMillis(), maxInvalidationLagMillis.get(),
+                estimatedBytes);
+    }
+
+    private static long entrySize(String key, String value) {
+        return ENTRY_OVERHEAD_BYTES + 2L * (key.length() + value.length());
+    }
+}
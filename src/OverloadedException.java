@@ -0,0 +1,9 @@
+/**
+ * Thrown by the coordinator when it is overloaded and rejects a
+ * transaction instead of queueing it. The client may retry later.
+ */
+public class OverloadedException extends Exception {
+    public OverloadedException(String message) {
+        super(message);
+    }
+}
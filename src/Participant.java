@@ -27,6 +27,12 @@ public interface Participant extends Remote {
      */
     Acknowledgement commit(Transaction request) throws RemoteException;
 
+    /**
+     * Method for dropping a transaction that did not pass the
+     * prepare phase of the 2PC, releasing the key locked for it
+     * @param request request made by client
+     * @throws RemoteException thrown when remote invocation fails
+     */
     void abort(Transaction request) throws RemoteException;
 
     /**
@@ -46,12 +52,81 @@ public interface Participant extends Remote {
 
     /**
      * Method to accept the client request and send it to coordinator
-     * to initiate the two-phase commit protocol
-     * @param request GET, PUT or DEL request
+     * to initiate the two-phase commit protocol. VERSION returns the
+     * version of a key, used for a later CASV request
+     * @param request GET, VERSION, PUT or DEL request
      * @param key key to be used in the operation
      * @param value value to be used in the operation
-     * @return "success" or "fail" depending on 2PC execution
+     * @return "success", "fail" or "overloaded" depending on 2PC execution
      * @throws RemoteException thrown when remote invocation fails
      */
     String clientRequest(String request, String key, String value) throws RemoteException;
+
+    /**
+     * Method to accept a conditional or atomic client request. The condition
+     * is checked by every participant in the prepare phase while the key is
+     * locked, and the update is applied in the commit phase, so the
+     * read-modify-write takes a single transaction.
+     * <ul>
+     *     <li>CAS - put value if the current value equals expected</li>
+     *     <li>CASV - put value if the current version equals expected</li>
+     *     <li>PUTIFABSENT - put value if the key is not present</li>
+     *     <li>DELIFEQ - delete the key if the current value equals expected</li>
+     *     <li>INCR - add value to the numeric value of the key, missing keys count as 0. The
+     *     condition fails if the value is not a number or the sum does not fit in a long</li>
+     * </ul>
+     * CAS, CASV and INCR keep the time to live of the key, PUTIFABSENT stores a key
+     * without one.
+     * @param request CAS, CASV, PUTIFABSENT, DELIFEQ or INCR request
+     * @param key key to be used in the operation
+     * @param value new value, or the amount to add for INCR
+     * @param expected expected value or version, null when not needed
+     * @return "success", "condition failed", "fail" or "overloaded", or the new value for INCR
+     * @throws RemoteException thrown when remote invocation fails
+     */
+    String conditionalRequest(String request, String key, String value, String expected) throws RemoteException;
+
+    /**
+     * Method to put a key which expires after the given time. Once expired,
+     * the key is reported as missing by every replica and is later removed
+     * together with other expired keys in a single transaction. CAS, CASV
+     * and INCR keep the expiry time, a PUT or a new putWithTtl replaces it
+     * @param key key to be used in the operation
+     * @param value value to be used in the operation
+     * @param ttlMillis time to live of the key in milliseconds
+     * @return "success", "fail" or "overloaded" depending on 2PC execution
+     * @throws RemoteException thrown when remote invocation fails
+     */
+    String putWithTtl(String key, String value, long ttlMillis) throws RemoteException;
+
+    /**
+     * Get a summary of the memory use, hit ratio, disk read
+     * latency and value compression of the key value store of this server
+     * @return one line summary of the store metrics
+     * @throws RemoteException thrown when remote invocation fails
+     */
+    String getStoreMetrics() throws RemoteException;
+
+    /**
+     * Write the recent phase timings of transactions seen by this server
+     * to a binary trace file, which can be read by TraceAnalyzer
+     * @return name of the trace file
+     * @throws RemoteException thrown when remote invocation fails or the file cannot be written
+     */
+    String dumpTrace() throws RemoteException;
+
+    /**
+     * Subscribe a client near cache to invalidations. The listener is
+     * notified every time this participant commits a PUT or DEL
+     * @param listener client callback for invalidations
+     * @throws RemoteException thrown when remote invocation fails
+     */
+    void subscribe(InvalidationListener listener) throws RemoteException;
+
+    /**
+     * Stop sending invalidations to a client near cache
+     * @param listener client callback previously subscribed
+     * @throws RemoteException thrown when remote invocation fails
+     */
+    void unsubscribe(InvalidationListener listener) throws RemoteException;
 }
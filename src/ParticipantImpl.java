@@ -1,6 +1,22 @@
+import java.io.File;
+import java.io.IOException;
+import java.rmi.NoSuchObjectException;
 import java.rmi.RemoteException;
 import java.rmi.server.UnicastRemoteObject;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -10,13 +26,74 @@ import java.util.logging.Logger;
  */
 public class ParticipantImpl extends UnicastRemoteObject implements Participant {
     private static final Logger ServerLog = Logger.getLogger(CoordinatorImpl.class.getName());
-    private final KeyValueStore keyValueStore = new KeyValueStoreImpl();
+    private final KeyValueStoreImpl keyValueStore;
     private Coordinator coordinator;
     private final int participantId;
+    // time and sequence of the last transaction id created here, see Transaction.newId
+    private final AtomicLong lastTransactionTick = new AtomicLong();
+    // subscribed client caches, each with its own queue of invalidations still to be sent
+    private final ConcurrentHashMap<InvalidationListener, Subscriber> listeners = new ConcurrentHashMap<>();
+    // invalidations are sent off the commit path so a slow client cannot hold up 2PC; every subscriber
+    // is served by at most one thread at a time, so a client which stops responding only holds up itself
+    private final ExecutorService invalidationExecutor = Executors.newCachedThreadPool();
+    // invalidations queued for one subscriber before they are replaced by invalidating its whole cache
+    private static final int MAX_PENDING_INVALIDATIONS = 1000;
+    // how long prepare waits for a key locked by a younger transaction
+    private static final long LOCK_WAIT_MILLIS = 500;
+    // keys locked between prepare and commit/abort, mapped to the id of the owning transaction
+    private final Map<String, Long> lockedKeys = new HashMap<>();
+    // new values of INCR requests started on this server, filled in on commit
+    private final ConcurrentHashMap<Long, String> incrementResults = new ConcurrentHashMap<>();
+    private static final int SERVER_COUNT = 5;
+    private static final long EXPIRY_CHECK_MILLIS = 100;
+    private static final int EXPIRY_BATCH_SIZE = 100;
+    // expired keys owned by this server which still have to be removed from all replicas
+    private final List<String> pendingExpiredKeys = new ArrayList<>();
+    private final ScheduledExecutorService expiryExecutor = Executors.newSingleThreadScheduledExecutor();
+    // values are compressed here when a client request arrives and kept compressed through 2PC
+    private final ValueCompression valueCompression;
+    private final TraceRecorder traceRecorder;
 
     protected ParticipantImpl(int participantId) throws RemoteException {
+        this(participantId, 0, new ValueCompression(0, new DeflateCodec(1)));
+    }
+
+    /**
+     * Create a participant whose store keeps at most the given amount of
+     * data in memory and spills the rest to a segment file on disk
+     * @param participantId identification of the replica server
+     * @param memoryBudgetBytes memory budget of the store, 0 for no limit
+     * @param valueCompression compression of large values, the same for every server
+     * @throws RemoteException thrown when the participant cannot be exported
+     */
+    protected ParticipantImpl(int participantId, long memoryBudgetBytes, ValueCompression valueCompression)
+            throws RemoteException {
         super();
         this.participantId = participantId;
+        this.valueCompression = valueCompression;
+        this.traceRecorder = new TraceRecorder(participantId, TraceRecorder.DEFAULT_CAPACITY);
+        this.keyValueStore = memoryBudgetBytes > 0
+                ? new KeyValueStoreImpl(memoryBudgetBytes, new File("participant" + participantId + ".segment"))
+                : new KeyValueStoreImpl();
+        expiryExecutor.scheduleWithFixedDelay(this::removeExpiredKeys, EXPIRY_CHECK_MILLIS, EXPIRY_CHECK_MILLIS,
+                TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stop the participant and its store: they are no longer exported,
+     * expired keys are no longer removed, the spill file is no longer
+     * compacted and the invalidations already queued are the last ones sent
+     */
+    void shutdown() {
+        expiryExecutor.shutdownNow();
+        invalidationExecutor.shutdown();
+        keyValueStore.shutdown();
+        try {
+            UnicastRemoteObject.unexportObject(this, true);
+            UnicastRemoteObject.unexportObject(keyValueStore, true);
+        } catch (NoSuchObjectException nsoe) {
+            // not exported any more
+        }
     }
 
     /**
@@ -24,14 +101,151 @@ public class ParticipantImpl extends UnicastRemoteObject implements Participant
      * coordinator when it requests for prepare to commit phase
      * of the 2PC
      * @param request request made by client
-     * @return READY or FAIL
+     * @return READY, FAIL, or REJECTED if the condition of the request does not hold
      * @throws RemoteException thrown when remote invocation fails
      */
     @Override
     public Acknowledgement prepare(Transaction request) throws RemoteException {
+        traceRecorder.start(request.getId(), TraceRecorder.PREPARE);
+        Acknowledgement ack = prepareKey(request);
+        traceRecorder.end(request.getId(), TraceRecorder.PREPARE, TraceRecorder.outcomeOf(ack));
+        return ack;
+    }
+
+    /**
+     * Lock the keys of a transaction and check its condition. An EXPIRE
+     * locks every key of its batch, so no other transaction writes them
+     * between its prepare and commit
+     * @return READY, FAIL or CONFLICT if a key stayed locked, or REJECTED if the condition does not hold
+     */
+    private Acknowledgement prepareKey(Transaction request) throws RemoteException {
+        List<String> keys = keysOf(request);
+        for (int i = 0; i < keys.size(); i++) {
+            Acknowledgement locked;
+            try {
+                locked = lockKey(keys.get(i), request.getId());
+            } catch (InterruptedException ie) {
+                Thread.currentThread().interrupt();
+                locked = Acknowledgement.ACK_FAIL;
+            }
+            if (locked != Acknowledgement.ACK_READY) {
+                ServerLog.log(Level.INFO, String.format("Server number %s could not lock key %s for transaction %s",
+                        participantId, keys.get(i), request.getId()));
+                for (String lockedKey : keys.subList(0, i)) {
+                    unlockKey(lockedKey, request.getId());
+                }
+                return locked;
+            }
+        }
+        if (!conditionHolds(request)) {
+            for (String lockedKey : keys) {
+                unlockKey(lockedKey, request.getId());
+            }
+            return Acknowledgement.ACK_REJECTED;
+        }
         return Acknowledgement.ACK_READY;
     }
 
+    /**
+     * Keys locked by a transaction: the batch of an EXPIRE, the single key otherwise
+     */
+    private static List<String> keysOf(Transaction request) {
+        return request.getRequest().equals("EXPIRE") ? request.getKeys() : Collections.singletonList(request.getKey());
+    }
+
+    /**
+     * Check the condition of a request against the store at the time of
+     * the transaction. Plain PUTs always pass, DEL needs the key to be present.
+     * @param request request made by client
+     * @return true if the request can be applied
+     */
+    private boolean conditionHolds(Transaction request) throws RemoteException {
+        String key = request.getKey();
+        long now = request.getTimestamp();
+        switch (request.getRequest()) {
+            case "DEL":
+                return keyValueStore.containsKey(key, now);
+            case "CAS":
+            case "DELIFEQ":
+                return keyValueStore.containsKey(key, now) && valueCompression.unpack(
+                        keyValueStore.getFromKeyValue(key, now)).equals(request.getExpected());
+            case "CASV":
+                return String.valueOf(keyValueStore.getVersion(key, now)).equals(request.getExpected());
+            case "PUTIFABSENT":
+                return !keyValueStore.containsKey(key, now);
+            case "INCR":
+                String current = keyValueStore.containsKey(key, now)
+                        ? valueCompression.unpack(keyValueStore.getFromKeyValue(key, now)) : "0";
+                return canAdd(current, request.getValue());
+            default:
+                return true;
+        }
+    }
+
+    /**
+     * Lock a key for a transaction until it is committed or aborted.
+     * Conflicts are resolved by wait-die: transaction ids grow over time, so
+     * a transaction waits a short time if a younger transaction holds the
+     * key, and gives up at once if the holder is older. Transactions
+     * coordinated by different servers then never wait for each other in a
+     * cycle, and every server resolves a conflict the same way
+     * @return READY if the key is locked for the transaction, CONFLICT if an
+     * older transaction holds the key, FAIL if the wait timed out
+     */
+    private Acknowledgement lockKey(String key, long transactionId) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + LOCK_WAIT_MILLIS;
+        synchronized (lockedKeys) {
+            while (true) {
+                Long owner = lockedKeys.get(key);
+                if (owner == null || owner == transactionId) {
+                    lockedKeys.put(key, transactionId);
+                    return Acknowledgement.ACK_READY;
+                }
+                if (owner < transactionId) {
+                    return Acknowledgement.ACK_CONFLICT;
+                }
+                long remaining = deadline - System.currentTimeMillis();
+                if (remaining <= 0) {
+                    return Acknowledgement.ACK_FAIL;
+                }
+                lockedKeys.wait(remaining);
+            }
+        }
+    }
+
+    private void unlockKey(String key, long transactionId) {
+        synchronized (lockedKeys) {
+            if (Objects.equals(lockedKeys.get(key), transactionId)) {
+                lockedKeys.remove(key);
+                lockedKeys.notifyAll();
+            }
+        }
+    }
+
+    /**
+     * @return true if both values are whole numbers and their sum does not overflow
+     */
+    private static boolean canAdd(String value, String amount) {
+        if (!isNumber(value) || !isNumber(amount)) {
+            return false;
+        }
+        try {
+            Math.addExact(Long.parseLong(value), Long.parseLong(amount));
+            return true;
+        } catch (ArithmeticException ae) {
+            return false;
+        }
+    }
+
+    private static boolean isNumber(String value) {
+        try {
+            Long.parseLong(value);
+            return true;
+        } catch (NumberFormatException nfe) {
+            return false;
+        }
+    }
+
     /**
      * Method for sending a "ready" or "fail" message to the
      * coordinator when it requests for commit phase
@@ -42,21 +256,163 @@ public class ParticipantImpl extends UnicastRemoteObject implements Participant
      */
     @Override
     public Acknowledgement commit(Transaction request) throws RemoteException {
+        traceRecorder.start(request.getId(), TraceRecorder.COMMIT);
+        Acknowledgement ack = commitKey(request);
+        traceRecorder.end(request.getId(), TraceRecorder.COMMIT, TraceRecorder.outcomeOf(ack));
+        return ack;
+    }
+
+    /**
+     * Apply a prepared transaction to the store and release its keys
+     * @return READY, or FAIL if the store could not be updated
+     */
+    private Acknowledgement commitKey(Transaction request) {
+        String key = request.getKey();
+        long now = request.getTimestamp();
         try {
-            if (Objects.equals(request.getRequest(), "DEL")) {
-                keyValueStore.deleteFromKeyValue(request.getKey());
+            if (Objects.equals(request.getRequest(), "DEL") || Objects.equals(request.getRequest(), "DELIFEQ")) {
+                keyValueStore.deleteFromKeyValue(key, now);
+            } else if (Objects.equals(request.getRequest(), "INCR")) {
+                long current = keyValueStore.containsKey(key, now)
+                        ? Long.parseLong(valueCompression.unpack(keyValueStore.getFromKeyValue(key, now))) : 0;
+                // prepare already rejected sums which overflow
+                String newValue = String.valueOf(Math.addExact(current, Long.parseLong(request.getValue())));
+                keyValueStore.updateKeyValue(key, newValue, now);
+                incrementResults.computeIfPresent(request.getId(), (id, pending) -> newValue);
+            } else if (Objects.equals(request.getRequest(), "EXPIRE")) {
+                for (String expiredKey : keyValueStore.removeExpired(request.getKeys(), request.getExpiresAt())) {
+                    notifyListeners(expiredKey);
+                }
+                return Acknowledgement.ACK_READY;
+            } else if (Objects.equals(request.getRequest(), "CAS") || Objects.equals(request.getRequest(), "CASV")) {
+                // updates of an existing value keep its time to live, only PUT replaces it
+                keyValueStore.updateKeyValue(key, request.getValue(), now);
+            } else if (request.getExpiresAt() > 0) {
+                keyValueStore.putToKeyValue(key, request.getValue(), request.getExpiresAt());
             } else {
-                keyValueStore.putToKeyValue(request.getKey(), request.getValue());
+                keyValueStore.putToKeyValue(key, request.getValue());
             }
+            notifyListeners(key);
             return Acknowledgement.ACK_READY;
         } catch (Exception e) {
             return Acknowledgement.ACK_FAIL;
+        } finally {
+            for (String lockedKey : keysOf(request)) {
+                unlockKey(lockedKey, request.getId());
+            }
         }
     }
 
+    /**
+     * Queue an invalidation for a committed key to all subscribed
+     * client caches. Listeners that cannot be reached are dropped.
+     * @param key key changed by the commit
+     */
+    private void notifyListeners(String key) {
+        if (listeners.isEmpty()) {
+            return;
+        }
+        long commitTime = System.currentTimeMillis();
+        for (Subscriber subscriber : listeners.values()) {
+            subscriber.enqueue(key, commitTime);
+        }
+    }
+
+    /**
+     * Invalidations waiting to be sent to one client cache. A key already
+     * waiting is sent once for all its commits. When the client falls too
+     * far behind, the queued keys are replaced by one invalidation of the
+     * whole cache, so the queue stays bounded and the cache never keeps a
+     * value that was changed
+     */
+    private class Subscriber {
+        private final InvalidationListener listener;
+        // keys to invalidate with the time of their first unsent commit, oldest first
+        private final LinkedHashMap<String, Long> pending = new LinkedHashMap<>();
+        // time of the first commit not sent since the queue overflowed, 0 if it did not
+        private long overflowTime = 0;
+        private boolean sending = false;
+
+        private Subscriber(InvalidationListener listener) {
+            this.listener = listener;
+        }
+
+        private void enqueue(String key, long commitTime) {
+            synchronized (this) {
+                if (overflowTime > 0) {
+                    return;
+                }
+                if (pending.size() >= MAX_PENDING_INVALIDATIONS && !pending.containsKey(key)) {
+                    overflowTime = pending.values().iterator().next();
+                    pending.clear();
+                } else {
+                    pending.putIfAbsent(key, commitTime);
+                }
+                if (sending) {
+                    return;
+                }
+                sending = true;
+            }
+            try {
+                invalidationExecutor.execute(this::send);
+            } catch (RejectedExecutionException ree) {
+                // the participant is shutting down
+                synchronized (this) {
+                    sending = false;
+                }
+            }
+        }
+
+        /**
+         * Send queued invalidations until the queue is empty
+         */
+        private void send() {
+            while (true) {
+                String key = null;
+                long commitTime;
+                synchronized (this) {
+                    if (overflowTime > 0) {
+                        commitTime = overflowTime;
+                        overflowTime = 0;
+                    } else if (!pending.isEmpty()) {
+                        Map.Entry<String, Long> next = pending.entrySet().iterator().next();
+                        key = next.getKey();
+                        commitTime = next.getValue();
+                        pending.remove(key);
+                    } else {
+                        sending = false;
+                        return;
+                    }
+                }
+                try {
+                    if (key == null) {
+                        listener.invalidateAll(commitTime);
+                    } else {
+                        listener.invalidate(key, commitTime);
+                    }
+                } catch (RemoteException re) {
+                    ServerLog.log(Level.INFO, String.format("Server number %s dropped unreachable cache " +
+                            "subscriber", participantId));
+                    listeners.remove(listener, this);
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * Method for dropping a transaction that did not pass the
+     * prepare phase of the 2PC, releasing the key locked for it
+     * @param request request made by client
+     * @throws RemoteException thrown when remote invocation fails
+     */
     @Override
     public void abort(Transaction request) throws RemoteException {
-
+        traceRecorder.start(request.getId(), TraceRecorder.ABORT);
+        for (String lockedKey : keysOf(request)) {
+            unlockKey(lockedKey, request.getId());
+        }
+        traceRecorder.end(request.getId(), TraceRecorder.ABORT, TraceRecorder.OK);
     }
 
     /**
@@ -82,27 +438,220 @@ public class ParticipantImpl extends UnicastRemoteObject implements Participant
 
     /**
      * Method to accept the client request and send it to coordinator
-     * to initiate the two-phase commit protocol
-     * @param request GET, PUT or DEL request
+     * to initiate the two-phase commit protocol. VERSION returns the
+     * version of a key, used for a later CASV request
+     * @param request GET, VERSION, PUT or DEL request
      * @param key key to be used in the operation
      * @param value value to be used in the operation
-     * @return "success" or "fail" depending on 2PC execution
+     * @return "success", "fail" or "overloaded" depending on 2PC execution
      * @throws RemoteException thrown when remote invocation fails
      */
     @Override
     public String clientRequest(String request, String key, String value) throws RemoteException {
-        Transaction transaction = new Transaction(States.INITIAL, key, value, request);
         if (request.equals("GET")) {
             ServerLog.log(Level.INFO, String.format("Server number %s completed GET request " +
                     "for key %s", participantId, key));
-            return keyValueStore.getFromKeyValue(key);
+            return valueCompression.unpack(keyValueStore.getFromKeyValue(key));
+        }
+        if (request.equals("VERSION")) {
+            return String.valueOf(keyValueStore.getVersion(key));
         }
+        // fast path, the prepare phase checks again while the key is locked
         if (request.equals("DEL") && !keyValueStore.containsKey(key)) {
             return "Invalid key";
         }
         else {
+            return runTransaction(new Transaction(nextTransactionId(), States.INITIAL, key,
+                    valueCompression.pack(value), request));
+        }
+    }
+
+    /**
+     * Method to accept a conditional or atomic client request. The condition
+     * is checked by every participant in the prepare phase while the key is
+     * locked, and the update is applied in the commit phase.
+     * @param request CAS, CASV, PUTIFABSENT, DELIFEQ or INCR request
+     * @param key key to be used in the operation
+     * @param value new value, or the amount to add for INCR
+     * @param expected expected value or version, null when not needed
+     * @return "success", "condition failed", "fail" or "overloaded", or the new value for INCR
+     * @throws RemoteException thrown when remote invocation fails
+     */
+    @Override
+    public String conditionalRequest(String request, String key, String value, String expected)
+            throws RemoteException {
+        switch (request) {
+            case "CAS":
+            case "CASV":
+            case "DELIFEQ":
+                if (expected == null) {
+                    throw new IllegalArgumentException(request + " request needs an expected value");
+                }
+                break;
+            case "PUTIFABSENT":
+                break;
+            case "INCR":
+                if (value == null || !isNumber(value)) {
+                    throw new IllegalArgumentException("INCR request needs a whole number to add");
+                }
+                break;
+            default:
+                throw new IllegalArgumentException("This is not a valid conditional operation");
+        }
+        String storedValue = request.equals("INCR") ? value : valueCompression.pack(value);
+        return runTransaction(new Transaction(nextTransactionId(), States.INITIAL, key, storedValue, request,
+                expected));
+    }
+
+    /**
+     * Method to put a key which expires after the given time. The expiry
+     * time is fixed here, so every replica expires the key at the same time
+     * @param key key to be used in the operation
+     * @param value value to be used in the operation
+     * @param ttlMillis time to live of the key in milliseconds
+     * @return "success", "fail" or "overloaded" depending on 2PC execution
+     * @throws RemoteException thrown when remote invocation fails
+     */
+    @Override
+    public String putWithTtl(String key, String value, long ttlMillis) throws RemoteException {
+        if (ttlMillis <= 0) {
+            throw new IllegalArgumentException("Time to live must be positive");
+        }
+        long expiresAt = System.currentTimeMillis() + ttlMillis;
+        return runTransaction(new Transaction(nextTransactionId(), States.INITIAL, key, valueCompression.pack(value),
+                "PUT", null, expiresAt, null));
+    }
+
+    /**
+     * Remove expired keys from all replicas. Every server finds expired keys
+     * through the timer wheel of its store, and removes the keys it owns
+     * (by key hash) in batches, one EXPIRE transaction per batch. Batches
+     * which fail are retried on the next run. Subscribed client caches are
+     * told to drop a key as soon as it is found expired, without waiting
+     * for its batch.
+     */
+    private void removeExpiredKeys() {
+        try {
+            long now = System.currentTimeMillis();
+            for (String key : keyValueStore.expiredKeys(now)) {
+                if (Math.floorMod(key.hashCode(), SERVER_COUNT) == participantId - 1) {
+                    pendingExpiredKeys.add(key);
+                    // client caches drop the key now, whether or not the removal commits
+                    notifyListeners(key);
+                }
+            }
+            while (!pendingExpiredKeys.isEmpty() && coordinator != null) {
+                List<String> batch = new ArrayList<>(
+                        pendingExpiredKeys.subList(0, Math.min(EXPIRY_BATCH_SIZE, pendingExpiredKeys.size())));
+                Transaction transaction = new Transaction(nextTransactionId(), States.INITIAL, null, null, "EXPIRE",
+                        null, now, batch);
+                if (!coordinator.initiate2PC(transaction)) {
+                    break;
+                }
+                ServerLog.log(Level.INFO, String.format("Server number %s removed %s expired keys",
+                        participantId, batch.size()));
+                pendingExpiredKeys.subList(0, batch.size()).clear();
+            }
+        } catch (Exception e) {
+            // keep the scheduled task alive, pending keys are retried on the next run
+            ServerLog.log(Level.WARNING, String.format("Server number %s could not remove expired keys: %s",
+                    participantId, e.getMessage()));
+        }
+    }
+
+    private long nextTransactionId() {
+        return Transaction.newId(participantId, lastTransactionTick);
+    }
+
+    /**
+     * Run a client update through the coordinator and translate the
+     * outcome of 2PC into the reply sent to the client
+     * @param transaction update requested by the client
+     * @return reply for the client
+     */
+    private String runTransaction(Transaction transaction) throws RemoteException {
+        String request = transaction.getRequest();
+        boolean increment = request.equals("INCR");
+        if (increment) {
+            incrementResults.put(transaction.getId(), "");
+        }
+        traceRecorder.start(transaction.getId(), TraceRecorder.REQUEST);
+        byte outcome = TraceRecorder.FAILED;
+        try {
             boolean successOrFail = this.coordinator.initiate2PC(transaction);
+            if (successOrFail) {
+                outcome = TraceRecorder.OK;
+            }
+            if (successOrFail && increment) {
+                return incrementResults.get(transaction.getId());
+            }
             return successOrFail ? "success" : "fail";
+        } catch (OverloadedException oe) {
+            ServerLog.log(Level.INFO, String.format("Server number %s could not start %s request %s: %s",
+                    participantId, request, transaction.getId(), oe.getMessage()));
+            return "overloaded";
+        } catch (ConditionFailedException cfe) {
+            ServerLog.log(Level.INFO, String.format("Server number %s: %s", participantId, cfe.getMessage()));
+            outcome = TraceRecorder.REJECTED;
+            return request.equals("DEL") ? "Invalid key" : "condition failed";
+        } finally {
+            traceRecorder.end(transaction.getId(), TraceRecorder.REQUEST, outcome);
+            if (increment) {
+                incrementResults.remove(transaction.getId());
+            }
+        }
+    }
+
+    /**
+     * Get a summary of the memory use, hit ratio, disk read
+     * latency and value compression of the key value store of this server
+     * @return one line summary of the store metrics
+     * @throws RemoteException thrown when remote invocation fails
+     */
+    @Override
+    public String getStoreMetrics() throws RemoteException {
+        return String.format("Server %s %s. %s", participantId, keyValueStore.getMetrics(),
+                valueCompression.getMetrics());
+    }
+
+    /**
+     * Write the recent phase timings of transactions seen by this server
+     * to a binary trace file, which can be read by TraceAnalyzer
+     * @return name of the trace file
+     * @throws RemoteException thrown when remote invocation fails or the file cannot be written
+     */
+    @Override
+    public String dumpTrace() throws RemoteException {
+        String path = "trace-participant" + participantId + ".bin";
+        try {
+            int events = traceRecorder.dump(path);
+            ServerLog.log(Level.INFO, String.format("Server number %s wrote %s trace events to %s",
+                    participantId, events, path));
+            return path;
+        } catch (IOException ioe) {
+            throw new RemoteException("Could not write trace file " + path, ioe);
         }
     }
+
+    /**
+     * Subscribe a client near cache to invalidations. The listener is
+     * notified every time this participant commits a PUT or DEL
+     * @param listener client callback for invalidations
+     * @throws RemoteException thrown when remote invocation fails
+     */
+    @Override
+    public void subscribe(InvalidationListener listener) throws RemoteException {
+        listeners.computeIfAbsent(listener, Subscriber::new);
+        ServerLog.log(Level.INFO, String.format("Server number %s added a cache subscriber", participantId));
+    }
+
+    /**
+     * Stop sending invalidations to a client near cache
+     * @param listener client callback previously subscribed
+     * @throws RemoteException thrown when remote invocation fails
+     */
+    @Override
+    public void unsubscribe(InvalidationListener listener) throws RemoteException {
+        listeners.remove(listener);
+    }
 }
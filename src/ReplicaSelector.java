@@ -0,0 +1,316 @@
+import java.rmi.RemoteException;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Chooses the replica server a client request is sent to, so the user
+ * does not have to pick one by hand. Each replica keeps an exponentially
+ * weighted moving average of its GET latency and a count of outstanding
+ * requests. The average decays while a replica is not used, so a replica
+ * which was slow once is tried again after a while instead of losing every
+ * comparison. Two replicas are sampled at random and the one with the lower
+ * load is used (power of two choices). Replicas that fail are ejected for
+ * a backoff period and the read is retried on another replica. Optionally
+ * a second, hedged read is sent when the first one is slower than a
+ * percentile of recently observed latencies.
+ */
+public class ReplicaSelector {
+    private static final double EWMA_ALPHA = 0.3;
+    // time without samples after which a replica's latency average counts half
+    private static final long EWMA_HALF_LIFE_NANOS = TimeUnit.SECONDS.toNanos(1);
+    private static final long BASE_EJECTION_MILLIS = 1000;
+    private static final long MAX_EJECTION_MILLIS = 30000;
+    private static final int LATENCY_WINDOW = 128;
+    private static final int MIN_SAMPLES_FOR_HEDGING = 10;
+    private static final long DEFAULT_HEDGE_DELAY_NANOS = TimeUnit.MILLISECONDS.toNanos(50);
+
+    private final Replica[] replicas;
+    private final boolean hedging;
+    private final double hedgePercentile;
+    private final ExecutorService executorService;
+
+    // recent latencies of all replicas, used for the hedge delay
+    private final long[] latencyWindow = new long[LATENCY_WINDOW];
+    private int latencyCount = 0;
+
+    private final AtomicLong retries = new AtomicLong();
+    private final AtomicLong hedgedRequests = new AtomicLong();
+
+    /**
+     * Create a selector over the replica servers
+     * @param participants replica servers the client can send requests to
+     * @param hedging true if slow reads should be hedged on a second replica
+     * @param hedgePercentile percentile of observed latency after which a hedged read is sent
+     */
+    public ReplicaSelector(Participant[] participants, boolean hedging, double hedgePercentile) {
+        if (hedgePercentile <= 0 || hedgePercentile >= 1) {
+            throw new IllegalArgumentException("Hedge percentile must be between 0 and 1");
+        }
+        this.replicas = new Replica[participants.length];
+        for (int i = 0; i < participants.length; i++) {
+            replicas[i] = new Replica(i, participants[i]);
+        }
+        this.hedging = hedging;
+        this.hedgePercentile = hedgePercentile;
+        this.executorService = Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, "replica-selector");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Pick the replica that a write request should be sent to
+     * @return least loaded of two randomly sampled replicas
+     */
+    public Participant choose() {
+        return choose(new HashSet<>()).participant;
+    }
+
+    /**
+     * Get the value of a key from an automatically selected replica.
+     * Failing replicas are ejected and the read is retried on another one.
+     * @param key key for which value is required
+     * @return value of key from store
+     * @throws RemoteException thrown when every replica failed
+     */
+    public String get(String key) throws RemoteException {
+        return hedging ? hedgedGet(key) : retryingGet(key);
+    }
+
+    /**
+     * Send the read to one replica at a time, moving to the next replica
+     * only if the previous one failed
+     */
+    private String retryingGet(String key) throws RemoteException {
+        Set<Integer> tried = new HashSet<>();
+        RemoteException lastFailure = null;
+        Replica replica = choose(tried);
+        while (replica != null) {
+            tried.add(replica.index);
+            try {
+                return timedGet(replica, key);
+            } catch (RemoteException re) {
+                lastFailure = re;
+                retries.incrementAndGet();
+            }
+            replica = choose(tried);
+        }
+        throw lastFailure;
+    }
+
+    /**
+     * Send the read to one replica and, if no answer arrived within the
+     * hedge delay, to a second one. The first successful answer is used.
+     */
+    private String hedgedGet(String key) throws RemoteException {
+        CompletionService<String> completionService = new ExecutorCompletionService<>(executorService);
+        Set<Integer> tried = new HashSet<>();
+        RemoteException lastFailure = null;
+
+        submit(completionService, choose(tried), tried, key);
+        int inFlight = 1;
+        try {
+            Future<String> done = completionService.poll(hedgeDelayNanos(), TimeUnit.NANOSECONDS);
+            if (done == null) {
+                Replica hedge = choose(tried);
+                if (hedge != null) {
+                    submit(completionService, hedge, tried, key);
+                    inFlight++;
+                    hedgedRequests.incrementAndGet();
+                }
+            }
+            while (inFlight > 0) {
+                if (done == null) {
+                    done = completionService.take();
+                }
+                inFlight--;
+                try {
+                    return done.get();
+                } catch (ExecutionException ee) {
+                    Throwable cause = ee.getCause();
+                    if (!(cause instanceof RemoteException)) {
+                        // a missing key is an answer, not a replica failure
+                        if (cause instanceof RuntimeException) {
+                            throw (RuntimeException) cause;
+                        }
+                        throw new RuntimeException(cause);
+                    }
+                    lastFailure = (RemoteException) cause;
+                    Replica retry = choose(tried);
+                    if (retry != null) {
+                        submit(completionService, retry, tried, key);
+                        inFlight++;
+                        retries.incrementAndGet();
+                    }
+                }
+                done = null;
+            }
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            throw new RemoteException("Interrupted while waiting for replica", ie);
+        }
+        throw lastFailure;
+    }
+
+    private void submit(CompletionService<String> completionService, Replica replica, Set<Integer> tried,
+                        String key) {
+        tried.add(replica.index);
+        completionService.submit(() -> timedGet(replica, key));
+    }
+
+    /**
+     * Send a GET to a replica and record its latency or failure
+     */
+    private String timedGet(Replica replica, String key) throws RemoteException {
+        replica.outstanding.incrementAndGet();
+        long start = System.nanoTime();
+        try {
+            String value = replica.participant.clientRequest("GET", key, null);
+            recordSuccess(replica, System.nanoTime() - start);
+            return value;
+        } catch (IllegalArgumentException iae) {
+            // the replica answered, the key is just not present
+            recordSuccess(replica, System.nanoTime() - start);
+            throw iae;
+        } catch (RemoteException re) {
+            replica.recordFailure();
+            throw re;
+        } finally {
+            replica.outstanding.decrementAndGet();
+        }
+    }
+
+    private void recordSuccess(Replica replica, long latencyNanos) {
+        replica.recordLatency(latencyNanos);
+        synchronized (latencyWindow) {
+            latencyWindow[latencyCount % LATENCY_WINDOW] = latencyNanos;
+            latencyCount++;
+        }
+    }
+
+    /**
+     * Choose between two random replicas that have not been tried yet,
+     * preferring replicas that are not ejected
+     * @param tried indexes of replicas already used for this request
+     * @return chosen replica or null if every replica has been tried
+     */
+    private Replica choose(Set<Integer> tried) {
+        long now = System.currentTimeMillis();
+        Replica[] healthy = Arrays.stream(replicas)
+                .filter(r -> !tried.contains(r.index) && r.ejectedUntil <= now)
+                .toArray(Replica[]::new);
+        if (healthy.length == 0) {
+            // every untried replica is ejected, fall back to any of them
+            healthy = Arrays.stream(replicas)
+                    .filter(r -> !tried.contains(r.index))
+                    .toArray(Replica[]::new);
+        }
+        if (healthy.length == 0) {
+            return null;
+        }
+        if (healthy.length == 1) {
+            return healthy[0];
+        }
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int first = random.nextInt(healthy.length);
+        int second = random.nextInt(healthy.length - 1);
+        if (second >= first) {
+            second++;
+        }
+        return healthy[first].load() <= healthy[second].load() ? healthy[first] : healthy[second];
+    }
+
+    /**
+     * @return delay after which a hedged read is sent
+     */
+    private long hedgeDelayNanos() {
+        long[] samples;
+        synchronized (latencyWindow) {
+            if (latencyCount < MIN_SAMPLES_FOR_HEDGING) {
+                return DEFAULT_HEDGE_DELAY_NANOS;
+            }
+            samples = Arrays.copyOf(latencyWindow, Math.min(latencyCount, LATENCY_WINDOW));
+        }
+        Arrays.sort(samples);
+        return samples[(int) Math.min(samples.length - 1, Math.floor(hedgePercentile * samples.length))];
+    }
+
+    /**
+     * @return one line summary of the replica latencies and selector activity
+     */
+    public String getMetrics() {
+        StringBuilder metrics = new StringBuilder("Replica selection:");
+        long now = System.currentTimeMillis();
+        for (Replica replica : replicas) {
+            metrics.append(String.format(" [server %d: ewma=%.2fms, outstanding=%d%s]", replica.index + 1,
+                    replica.ewmaNanos(System.nanoTime()) / 1e6, replica.outstanding.get(),
+                    replica.ejectedUntil > now ? ", ejected" : ""));
+        }
+        metrics.append(String.format(" retries=%d, hedgedRequests=%d", retries.get(), hedgedRequests.get()));
+        return metrics.toString();
+    }
+
+    /**
+     * Latency and failure state of a single replica server
+     */
+    private static class Replica {
+        private final int index;
+        private final Participant participant;
+        private final AtomicInteger outstanding = new AtomicInteger();
+        private volatile double ewmaNanos = 0;
+        private volatile long lastSampleNanos = 0;
+        private volatile long ejectedUntil = 0;
+        private int consecutiveFailures = 0;
+
+        private Replica(int index, Participant participant) {
+            this.index = index;
+            this.participant = participant;
+        }
+
+        /**
+         * Load of the replica, replicas without recent samples are tried first
+         */
+        private double load() {
+            return ewmaNanos(System.nanoTime()) * (outstanding.get() + 1);
+        }
+
+        /**
+         * Latency average, halved for every half-life that passed since the last sample
+         */
+        private double ewmaNanos(long now) {
+            double ewma = ewmaNanos;
+            if (ewma == 0) {
+                return 0;
+            }
+            return ewma * Math.pow(0.5, (now - lastSampleNanos) / (double) EWMA_HALF_LIFE_NANOS);
+        }
+
+        private synchronized void recordLatency(long latencyNanos) {
+            long now = System.nanoTime();
+            double ewma = ewmaNanos(now);
+            ewmaNanos = ewma == 0 ? latencyNanos : EWMA_ALPHA * latencyNanos + (1 - EWMA_ALPHA) * ewma;
+            lastSampleNanos = now;
+            consecutiveFailures = 0;
+            ejectedUntil = 0;
+        }
+
+        private synchronized void recordFailure() {
+            consecutiveFailures++;
+            long backoff = Math.min(MAX_EJECTION_MILLIS,
+                    BASE_EJECTION_MILLIS << Math.min(consecutiveFailures - 1, 5));
+            ejectedUntil = System.currentTimeMillis() + backoff;
+        }
+    }
+}
@@ -0,0 +1,290 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Local on-disk segment holding values spilled out of the memory of
+ * the store. Values are appended to the end of the file and an index
+ * in memory keeps the position of the latest value of each key. When
+ * most of the file is taken by values which were removed or replaced,
+ * the live values are copied to a new file. Values which only use
+ * characters up to 0xFF, such as compressed values, are written with one
+ * byte per character, other values as UTF-8.
+ * Reads do not wait for writes or for a compaction: they look up the key
+ * in a concurrent index and read through one of several file handles.
+ * A compaction runs on a background thread of the segment. It sends new
+ * values to the new file at once and moves the live values over one at a
+ * time, so only the short append of each moved value holds up writers.
+ */
+public class SegmentFile {
+    private static final Logger ServerLog = Logger.getLogger(CoordinatorImpl.class.getName());
+    // compact once the files are this many times larger than the live values
+    private static final int COMPACTION_RATIO = 2;
+    private static final long MIN_COMPACTION_BYTES = 1024 * 1024;
+    // number of file handles reads are spread over
+    private static final int READERS = 8;
+
+    private final File path;
+    private final Map<String, Location> index = new ConcurrentHashMap<>();
+    private final AtomicBoolean compacting = new AtomicBoolean();
+    private final ExecutorService compactionExecutor = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "segment-compaction");
+        thread.setDaemon(true);
+        return thread;
+    });
+    // file receiving new values, and the sizes below, guarded by this
+    private Generation current;
+    private int generationCount = 0;
+    private long liveBytes = 0;
+    private long fileBytes = 0;
+
+    /**
+     * Create an empty segment file, replacing any file left from an earlier run
+     * @param path location of the segment file
+     */
+    public SegmentFile(File path) {
+        this.path = path;
+        this.current = new Generation(path);
+    }
+
+    /**
+     * Append a value to the segment, replacing any earlier value of the key
+     * @param key key of the value
+     * @param value value to write
+     */
+    public void write(String key, String value) {
+        boolean latin1 = value.chars().allMatch(c -> c <= 0xFF);
+        byte[] bytes = value.getBytes(latin1 ? StandardCharsets.ISO_8859_1 : StandardCharsets.UTF_8);
+        synchronized (this) {
+            Location previous = index.put(key, append(bytes, latin1));
+            if (previous != null) {
+                liveBytes -= previous.length;
+            }
+            liveBytes += bytes.length;
+        }
+    }
+
+    /**
+     * Read the value of a key from the segment
+     * @param key key to read
+     * @return value of the key, null if the key is not in the segment
+     */
+    public String read(String key) {
+        while (true) {
+            Location location = index.get(key);
+            if (location == null) {
+                return null;
+            }
+            byte[] bytes = location.generation.read(location);
+            // null when a compaction retired the file after the lookup, the index points to the new file by now
+            if (bytes != null) {
+                return new String(bytes, location.latin1 ? StandardCharsets.ISO_8859_1 : StandardCharsets.UTF_8);
+            }
+        }
+    }
+
+    /**
+     * @param key key to look up
+     * @return true if the segment holds a value for the key
+     */
+    public boolean contains(String key) {
+        return index.containsKey(key);
+    }
+
+    /**
+     * Drop the value of a key. The space is reclaimed by the next compaction
+     * @param key key to remove
+     */
+    public synchronized void remove(String key) {
+        Location previous = index.remove(key);
+        if (previous != null) {
+            liveBytes -= previous.length;
+        }
+    }
+
+    /**
+     * @return number of keys held in the segment
+     */
+    public int size() {
+        return index.size();
+    }
+
+    /**
+     * Start copying the live values to a new file if most of the segment is
+     * taken by values which were removed or replaced. The copy runs on the
+     * background thread of the segment, so this returns at once
+     */
+    public void compactIfNeeded() {
+        if (compacting.get()) {
+            return;
+        }
+        synchronized (this) {
+            if (fileBytes < MIN_COMPACTION_BYTES || fileBytes < COMPACTION_RATIO * liveBytes) {
+                return;
+            }
+        }
+        if (!compacting.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            compactionExecutor.execute(this::compact);
+        } catch (RejectedExecutionException ree) {
+            // the segment was closed
+            compacting.set(false);
+        }
+    }
+
+    /**
+     * Stop compacting the segment. A compaction in progress is finished
+     */
+    public void close() {
+        compactionExecutor.shutdown();
+    }
+
+    /**
+     * Copy the live values to a new file and delete the old one
+     */
+    private void compact() {
+        try {
+            Generation old;
+            synchronized (this) {
+                old = current;
+                current = new Generation(new File(path.getPath() + "." + ++generationCount));
+            }
+            for (Map.Entry<String, Location> entry : index.entrySet()) {
+                Location location = entry.getValue();
+                if (location.generation != old) {
+                    continue;
+                }
+                byte[] bytes = old.read(location);
+                synchronized (this) {
+                    // a value written or removed since the lookup is left alone
+                    if (index.get(entry.getKey()) == location) {
+                        index.put(entry.getKey(), append(bytes, location.latin1));
+                    }
+                }
+            }
+            synchronized (this) {
+                fileBytes -= old.length;
+            }
+            old.retire();
+        } catch (UncheckedIOException uioe) {
+            ServerLog.log(Level.WARNING, "Could not compact segment file " + path + ": " + uioe.getMessage());
+        } finally {
+            compacting.set(false);
+        }
+    }
+
+    /**
+     * Append bytes to the file receiving new values, must hold this
+     */
+    private Location append(byte[] bytes, boolean latin1) {
+        Location location = current.append(bytes, latin1);
+        fileBytes += bytes.length;
+        return location;
+    }
+
+    /**
+     * Position of a value in one of the segment files
+     */
+    private static class Location {
+        private final Generation generation;
+        private final long offset;
+        private final int length;
+        private final boolean latin1;
+
+        private Location(Generation generation, long offset, int length, boolean latin1) {
+            this.generation = generation;
+            this.offset = offset;
+            this.length = length;
+            this.latin1 = latin1;
+        }
+    }
+
+    /**
+     * One segment file. Appends go through one handle, reads through several
+     * handles which are each used by one reader at a time
+     */
+    private static class Generation {
+        private final File file;
+        private final RandomAccessFile appender;
+        private final RandomAccessFile[] readers = new RandomAccessFile[READERS];
+        private long length = 0;
+        private volatile boolean retired = false;
+
+        private Generation(File file) {
+            this.file = file;
+            try {
+                appender = new RandomAccessFile(file, "rw");
+                appender.setLength(0);
+                for (int i = 0; i < READERS; i++) {
+                    readers[i] = new RandomAccessFile(file, "r");
+                }
+            } catch (IOException ioe) {
+                throw new UncheckedIOException("Could not create segment file " + file, ioe);
+            }
+            file.deleteOnExit();
+        }
+
+        private Location append(byte[] bytes, boolean latin1) {
+            try {
+                appender.seek(length);
+                appender.write(bytes);
+            } catch (IOException ioe) {
+                throw new UncheckedIOException("Could not write to segment file " + file, ioe);
+            }
+            Location location = new Location(this, length, bytes.length, latin1);
+            length += bytes.length;
+            return location;
+        }
+
+        /**
+         * @return bytes of the value, null if the file was retired
+         */
+        private byte[] read(Location location) {
+            RandomAccessFile reader = readers[Math.floorMod((int) Thread.currentThread().getId(), READERS)];
+            synchronized (reader) {
+                if (retired) {
+                    return null;
+                }
+                try {
+                    byte[] bytes = new byte[location.length];
+                    reader.seek(location.offset);
+                    reader.readFully(bytes);
+                    return bytes;
+                } catch (IOException ioe) {
+                    throw new UncheckedIOException("Could not read from segment file " + file, ioe);
+                }
+            }
+        }
+
+        /**
+         * Close and delete the file once no value in the index points to it
+         */
+        private void retire() {
+            retired = true;
+            try {
+                appender.close();
+                for (RandomAccessFile reader : readers) {
+                    // waits for a read in progress on this handle
+                    synchronized (reader) {
+                        reader.close();
+                    }
+                }
+            } catch (IOException ioe) {
+                throw new UncheckedIOException("Could not close segment file " + file, ioe);
+            }
+            file.delete();
+        }
+    }
+}
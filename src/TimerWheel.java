@@ -0,0 +1,130 @@
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Hierarchical timer wheel used to find expired keys without scanning
+ * the whole store. Each level has 64 slots; a slot of level 0 covers one
+ * tick, a slot of level 1 covers 64 ticks and so on. A key is placed in the
+ * level given by the highest bits in which its deadline differs from the
+ * current tick, and moves down a level every time the wheel reaches its
+ * slot, until it falls due in level 0. Deadlines beyond the last level are
+ * kept aside and placed again when the last level has turned around.
+ */
+public class TimerWheel {
+    private static final int SLOT_BITS = 6;
+    private static final int SLOTS = 1 << SLOT_BITS;
+    private static final int SLOT_MASK = SLOTS - 1;
+
+    private final long tickMillis;
+    private final int levels;
+    private final List<List<Entry>> slots;
+    private final List<Entry> overflow = new ArrayList<>();
+    private final List<Entry> due = new ArrayList<>();
+    private long currentTick;
+
+    /**
+     * Create a timer wheel
+     * @param tickMillis length of one tick, the precision of the wheel
+     * @param levels number of levels, the wheel covers 64^levels ticks
+     */
+    public TimerWheel(long tickMillis, int levels) {
+        if (tickMillis <= 0 || levels < 1 || levels * SLOT_BITS >= 62) {
+            throw new IllegalArgumentException("Invalid timer wheel settings");
+        }
+        this.tickMillis = tickMillis;
+        this.levels = levels;
+        this.slots = new ArrayList<>(levels * SLOTS);
+        for (int i = 0; i < levels * SLOTS; i++) {
+            slots.add(new ArrayList<>());
+        }
+        this.currentTick = System.currentTimeMillis() / tickMillis;
+    }
+
+    /**
+     * Schedule a key to fall due at the given time
+     * @param key key to schedule
+     * @param expiresAt time in milliseconds at which the key falls due
+     */
+    public synchronized void schedule(String key, long expiresAt) {
+        place(new Entry(key, expiresAt));
+    }
+
+    /**
+     * Move the wheel forward to the given time
+     * @param now current time in milliseconds
+     * @return keys that fell due, with the deadline they were scheduled for
+     */
+    public synchronized List<Entry> advance(long now) {
+        long targetTick = now / tickMillis;
+        while (currentTick < targetTick) {
+            currentTick++;
+            // cascade from the top so entries can fall through several levels in one tick
+            if ((currentTick & ((1L << (levels * SLOT_BITS)) - 1)) == 0) {
+                List<Entry> waiting = new ArrayList<>(overflow);
+                overflow.clear();
+                waiting.forEach(this::place);
+            }
+            for (int level = levels - 1; level > 0; level--) {
+                if ((currentTick & ((1L << (level * SLOT_BITS)) - 1)) == 0) {
+                    List<Entry> slot = slot(level, currentTick);
+                    List<Entry> cascading = new ArrayList<>(slot);
+                    slot.clear();
+                    cascading.forEach(this::place);
+                }
+            }
+            List<Entry> slot = slot(0, currentTick);
+            due.addAll(slot);
+            slot.clear();
+        }
+        List<Entry> expired = new ArrayList<>(due);
+        due.clear();
+        return expired;
+    }
+
+    private void place(Entry entry) {
+        // round up so a key never falls due before its deadline
+        long deadlineTick = (entry.expiresAt + tickMillis - 1) / tickMillis;
+        if (deadlineTick <= currentTick) {
+            due.add(entry);
+            return;
+        }
+        int highestDifferentBit = 63 - Long.numberOfLeadingZeros(deadlineTick ^ currentTick);
+        int level = highestDifferentBit / SLOT_BITS;
+        if (level >= levels) {
+            overflow.add(entry);
+        } else {
+            slot(level, deadlineTick).add(entry);
+        }
+    }
+
+    private List<Entry> slot(int level, long tick) {
+        return slots.get(level * SLOTS + (int) ((tick >>> (level * SLOT_BITS)) & SLOT_MASK));
+    }
+
+    /**
+     * A key scheduled in the wheel with its deadline
+     */
+    public static class Entry {
+        private final String key;
+        private final long expiresAt;
+
+        private Entry(String key, long expiresAt) {
+            this.key = key;
+            this.expiresAt = expiresAt;
+        }
+
+        /**
+         * @return scheduled key
+         */
+        public String getKey() {
+            return key;
+        }
+
+        /**
+         * @return time in milliseconds at which the key falls due
+         */
+        public long getExpiresAt() {
+            return expiresAt;
+        }
+    }
+}
@@ -0,0 +1,194 @@
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.time.Instant;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Offline tool which reads the trace files written by the coordinator and
+ * the participants, matches the start and end of every phase, and prints
+ * the timelines of the slowest transactions. Each line of a timeline shows
+ * when a phase started relative to the start of the transaction, how long
+ * it took and on which server, so a slow participant or phase stands out.
+ * Run with: java TraceAnalyzer [number of transactions] trace files...
+ */
+public class TraceAnalyzer {
+
+    public static void main(String[] args) throws IOException {
+        int count = 10;
+        int firstFile = 0;
+        if (args.length > 0 && args[0].matches("\\d+")) {
+            count = Integer.parseInt(args[0]);
+            firstFile = 1;
+        }
+        if (firstFile >= args.length) {
+            System.out.println("Usage: java TraceAnalyzer [number of transactions] trace files...");
+            return;
+        }
+
+        Map<Long, List<Event>> eventsByTransaction = new HashMap<>();
+        for (int i = firstFile; i < args.length; i++) {
+            for (Event event : read(args[i])) {
+                eventsByTransaction.computeIfAbsent(event.transactionId, id -> new ArrayList<>()).add(event);
+            }
+        }
+
+        List<Timeline> timelines = new ArrayList<>();
+        for (Map.Entry<Long, List<Event>> entry : eventsByTransaction.entrySet()) {
+            timelines.add(new Timeline(entry.getKey(), spans(entry.getValue())));
+        }
+        timelines.sort(Comparator.comparingLong((Timeline timeline) -> timeline.duration()).reversed());
+
+        System.out.printf("%d transactions traced, showing the %d slowest%n", timelines.size(),
+                Math.min(count, timelines.size()));
+        for (Timeline timeline : timelines.subList(0, Math.min(count, timelines.size()))) {
+            print(timeline);
+        }
+    }
+
+    /**
+     * Read all events of one trace file
+     */
+    private static List<Event> read(String path) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(path)))) {
+            if (in.readInt() != TraceRecorder.MAGIC) {
+                throw new IOException(path + " is not a trace file");
+            }
+            int node = in.readShort();
+            int count = in.readInt();
+            List<Event> events = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                long transactionId = in.readLong();
+                long time = in.readLong();
+                short kind = in.readShort();
+                events.add(new Event(transactionId, time, node, kind >> 8,
+                        (kind & TraceRecorder.END_FLAG) != 0, kind & 0x7F));
+            }
+            return events;
+        }
+    }
+
+    /**
+     * Match the start and end events of one transaction into phases. A phase
+     * which did not end before the trace was written has no end time
+     */
+    private static List<Span> spans(List<Event> events) {
+        events.sort(Comparator.comparingLong(event -> event.time));
+        Map<Integer, ArrayDeque<Span>> open = new HashMap<>();
+        List<Span> spans = new ArrayList<>();
+        for (Event event : events) {
+            int phaseKey = event.node * 256 + event.phase;
+            if (!event.end) {
+                Span span = new Span(event.node, event.phase, event.time);
+                spans.add(span);
+                open.computeIfAbsent(phaseKey, key -> new ArrayDeque<>()).add(span);
+            } else {
+                ArrayDeque<Span> started = open.get(phaseKey);
+                if (started == null || started.isEmpty()) {
+                    // the start was overwritten in the ring before the trace was written
+                    continue;
+                }
+                Span span = started.poll();
+                span.end = event.time;
+                span.outcome = event.outcome;
+            }
+        }
+        return spans;
+    }
+
+    private static void print(Timeline timeline) {
+        long begin = timeline.begin();
+        System.out.printf("%nTransaction %d: %.3f ms, started %s%n", timeline.transactionId,
+                timeline.duration() / 1e6, Instant.ofEpochSecond(0, begin));
+        System.out.printf("  %10s %12s  %-14s %-14s %s%n", "offset ms", "duration ms", "server", "phase", "outcome");
+        for (Span span : timeline.spans) {
+            String duration = span.end < 0 ? "unfinished" : String.format("%.3f", (span.end - span.start) / 1e6);
+            System.out.printf("  %10.3f %12s  %-14s %-14s %s%n", (span.start - begin) / 1e6, duration,
+                    span.node == 0 ? "coordinator" : "server " + span.node,
+                    span.phase < TraceRecorder.PHASE_NAMES.length ? TraceRecorder.PHASE_NAMES[span.phase] : "?",
+                    span.end < 0 ? "" : outcomeName(span.outcome));
+        }
+    }
+
+    private static String outcomeName(int outcome) {
+        switch (outcome) {
+            case TraceRecorder.OK:
+                return "ok";
+            case TraceRecorder.REJECTED:
+                return "rejected";
+            case TraceRecorder.CONFLICT:
+                return "conflict";
+            default:
+                return "failed";
+        }
+    }
+
+    /**
+     * Start or end of a phase as read from a trace file
+     */
+    private static class Event {
+        private final long transactionId;
+        private final long time;
+        private final int node;
+        private final int phase;
+        private final boolean end;
+        private final int outcome;
+
+        private Event(long transactionId, long time, int node, int phase, boolean end, int outcome) {
+            this.transactionId = transactionId;
+            this.time = time;
+            this.node = node;
+            this.phase = phase;
+            this.end = end;
+            this.outcome = outcome;
+        }
+    }
+
+    /**
+     * One phase of a transaction on one server
+     */
+    private static class Span {
+        private final int node;
+        private final int phase;
+        private final long start;
+        private long end = -1;
+        private int outcome;
+
+        private Span(int node, int phase, long start) {
+            this.node = node;
+            this.phase = phase;
+            this.start = start;
+        }
+    }
+
+    /**
+     * All phases of one transaction, in the order they started
+     */
+    private static class Timeline {
+        private final long transactionId;
+        private final List<Span> spans;
+
+        private Timeline(long transactionId, List<Span> spans) {
+            this.transactionId = transactionId;
+            this.spans = spans;
+        }
+
+        private long begin() {
+            return spans.isEmpty() ? 0 : spans.get(0).start;
+        }
+
+        private long duration() {
+            long last = begin();
+            for (Span span : spans) {
+                last = Math.max(last, Math.max(span.start, span.end));
+            }
+            return last - begin();
+        }
+    }
+}
@@ -0,0 +1,178 @@
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.lang.invoke.VarHandle;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Records when each phase of a transaction starts and ends on one server,
+ * so slow transactions can be taken apart after the fact. Events go into a
+ * fixed-size ring without locking: every event claims the next slot with an
+ * atomic counter and the oldest events are overwritten. Each slot carries
+ * the number of the event written into it. A writer claims the slot with a
+ * compare-and-set, so two writers a full lap of the ring apart never write
+ * the same slot at once: the later claim fails and its event is dropped
+ * instead of being mixed with the other. A dump skips slots which are
+ * being written or were overwritten while it read them.
+ * A dump writes the events in a compact binary file which is read by
+ * TraceAnalyzer.
+ */
+public class TraceRecorder {
+    // phases of a transaction, recorded by the entry server, the coordinator and the participants
+    public static final byte REQUEST = 0;
+    public static final byte ADMISSION = 1;
+    public static final byte PREPARE_ROUND = 2;
+    public static final byte COMMIT_ROUND = 3;
+    public static final byte ABORT_ROUND = 4;
+    public static final byte PREPARE = 5;
+    public static final byte COMMIT = 6;
+    public static final byte ABORT = 7;
+    static final String[] PHASE_NAMES = {"REQUEST", "ADMISSION", "PREPARE_ROUND", "COMMIT_ROUND", "ABORT_ROUND",
+            "PREPARE", "COMMIT", "ABORT"};
+
+    // outcome stored with the end of a phase
+    public static final byte OK = 0;
+    public static final byte FAILED = 1;
+    public static final byte REJECTED = 2;
+    public static final byte CONFLICT = 3;
+
+    // events kept by each server, 64K events take about 1.7MB
+    public static final int DEFAULT_CAPACITY = 1 << 16;
+
+    // "TRC1", followed by the format of the events
+    static final int MAGIC = 0x54524331;
+    // an event has the end flag in the high bit and the outcome in the low bits of its last byte
+    static final int END_FLAG = 0x80;
+
+    // all recorders share one clock so the events of different servers line up
+    private static final long BASE_EPOCH_NANOS = System.currentTimeMillis() * 1_000_000L;
+    private static final long BASE_NANO_TIME = System.nanoTime();
+
+    private final int nodeId;
+    private final int mask;
+    private final long[] transactionIds;
+    private final long[] timestamps;
+    // phase in the high byte, end flag and outcome in the low byte
+    private final short[] events;
+    // number of the event held by each slot plus one, negated while the slot is written
+    private final AtomicLongArray sequences;
+    private final AtomicLong nextSequence = new AtomicLong();
+
+    /**
+     * Create a trace recorder
+     * @param nodeId server the events are recorded on, 0 for the coordinator
+     * @param capacity number of events kept, rounded up to a power of two
+     */
+    public TraceRecorder(int nodeId, int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Trace capacity must be positive");
+        }
+        int size = Integer.highestOneBit(Math.max(2, capacity - 1) << 1);
+        this.nodeId = nodeId;
+        this.mask = size - 1;
+        this.transactionIds = new long[size];
+        this.timestamps = new long[size];
+        this.events = new short[size];
+        this.sequences = new AtomicLongArray(size);
+    }
+
+    /**
+     * Record the start of a phase
+     * @param transactionId transaction the phase belongs to
+     * @param phase phase which starts
+     */
+    public void start(long transactionId, byte phase) {
+        record(transactionId, (short) (phase << 8));
+    }
+
+    /**
+     * Record the end of a phase
+     * @param transactionId transaction the phase belongs to
+     * @param phase phase which ends
+     * @param outcome OK, FAILED, REJECTED or CONFLICT
+     */
+    public void end(long transactionId, byte phase, byte outcome) {
+        record(transactionId, (short) ((phase << 8) | END_FLAG | outcome));
+    }
+
+    /**
+     * Translate the acknowledgement of a phase into its outcome
+     * @param ack acknowledgement of the phase
+     * @return outcome to record
+     */
+    public static byte outcomeOf(Acknowledgement ack) {
+        switch (ack) {
+            case ACK_READY:
+                return OK;
+            case ACK_REJECTED:
+                return REJECTED;
+            case ACK_CONFLICT:
+                return CONFLICT;
+            default:
+                return FAILED;
+        }
+    }
+
+    private void record(long transactionId, short event) {
+        long sequence = nextSequence.getAndIncrement();
+        int slot = (int) (sequence & mask);
+        long held = sequences.get(slot);
+        // drop the event if another writer is in the slot or already wrote a newer event to it;
+        // the compare-and-set also marks the slot as being written before its fields change
+        if (held < 0 || held > sequence || !sequences.compareAndSet(slot, held, -(sequence + 1))) {
+            return;
+        }
+        transactionIds[slot] = transactionId;
+        timestamps[slot] = BASE_EPOCH_NANOS + (System.nanoTime() - BASE_NANO_TIME);
+        events[slot] = event;
+        sequences.set(slot, sequence + 1);
+    }
+
+    /**
+     * Write the events in the ring to a trace file, oldest first. The file
+     * starts with the magic number, the node id and the number of events;
+     * each event is the transaction id, the time in nanoseconds since the
+     * epoch, the phase and the end flag with the outcome, 18 bytes in total
+     * @param path trace file to write
+     * @return number of events written
+     * @throws IOException thrown when the file cannot be written
+     */
+    public int dump(String path) throws IOException {
+        long last = nextSequence.get();
+        long first = Math.max(0, last - (mask + 1));
+        long[] ids = new long[(int) (last - first)];
+        long[] times = new long[ids.length];
+        short[] kinds = new short[ids.length];
+        int count = 0;
+        for (long sequence = first; sequence < last; sequence++) {
+            int slot = (int) (sequence & mask);
+            if (sequences.get(slot) != sequence + 1) {
+                continue;
+            }
+            long id = transactionIds[slot];
+            long time = timestamps[slot];
+            short kind = events[slot];
+            // the fields are only used if the slot was not overwritten while they were read
+            VarHandle.loadLoadFence();
+            if (sequences.get(slot) == sequence + 1) {
+                ids[count] = id;
+                times[count] = time;
+                kinds[count] = kind;
+                count++;
+            }
+        }
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(path)))) {
+            out.writeInt(MAGIC);
+            out.writeShort(nodeId);
+            out.writeInt(count);
+            for (int i = 0; i < count; i++) {
+                out.writeLong(ids[i]);
+                out.writeLong(times[i]);
+                out.writeShort(kinds[i]);
+            }
+        }
+        return count;
+    }
+}
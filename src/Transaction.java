@@ -1,21 +1,79 @@
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
 /**
  * An object to define the client request made to the
  * key-value store replicas. State defines the current step in the
  * 2PC protocol. Request is the GET, PUT or DEL operation made
- * by the client with key and value.
+ * by the client with key and value. Conditional requests (CAS, CASV,
+ * PUTIFABSENT, DELIFEQ, INCR) also carry the expected value or version.
+ * A PUT can carry an expiry time, and an EXPIRE request carries a batch
+ * of expired keys to remove from every replica. The timestamp is the time
+ * at which every replica evaluates expiry for the transaction, so all of
+ * them see the same keys as present whatever their own clocks say.
  */
 public class Transaction {
+    // an id is the creation time in milliseconds, a sequence within the millisecond and the id of the server
+    // which created the transaction, from the highest bits to the lowest
+    private static final int SEQUENCE_BITS = 14;
+    private static final int SERVER_BITS = 6;
+
+    private final long id;
     private States state;
     private final String key;
     private final String value;
     private final String request;
+    private final String expected;
+    private final long expiresAt;
+    private final List<String> keys;
+    private long timestamp;
 
+    public Transaction(long id, States state, String key, String value, String request) {
+        this(id, state, key, value, request, null);
+    }
+
+    public Transaction(long id, States state, String key, String value, String request, String expected) {
+        this(id, state, key, value, request, expected, 0, null);
+    }
 
-    public Transaction(States state, String key, String value, String request) {
+    public Transaction(long id, States state, String key, String value, String request, String expected,
+                       long expiresAt, List<String> keys) {
+        this.id = id;
         this.state = state;
         this.key = key;
         this.value = value;
         this.request = request;
+        this.expected = expected;
+        this.expiresAt = expiresAt;
+        this.keys = keys;
+        this.timestamp = System.currentTimeMillis();
+    }
+
+    /**
+     * Create the id of a new transaction. Ids are built from the clock and the
+     * id of the creating server rather than from a counter shared by all
+     * servers, so servers in separate processes never hand out the same id.
+     * A smaller id means an older transaction when resolving key conflicts;
+     * across servers this holds as far as their clocks agree
+     * @param serverId id of the server creating the transaction, below 64
+     * @param lastTick time and sequence of the last id of this server, kept by the server
+     * @return unique id, larger than every earlier id of the server
+     */
+    public static long newId(int serverId, AtomicLong lastTick) {
+        if (serverId < 0 || serverId >= 1 << SERVER_BITS) {
+            throw new IllegalArgumentException("Server id must be between 0 and " + ((1 << SERVER_BITS) - 1));
+        }
+        // more than 2^14 ids in one millisecond borrow from the next one, so ids never repeat
+        long tick = lastTick.accumulateAndGet(System.currentTimeMillis() << SEQUENCE_BITS,
+                (last, now) -> Math.max(last + 1, now));
+        return tick << SERVER_BITS | serverId;
+    }
+
+    /**
+     * @return identification of the transaction, used to lock keys between prepare and commit
+     */
+    public long getId() {
+        return id;
     }
 
     /**
@@ -54,4 +112,43 @@ public class Transaction {
     public String getRequest() {
         return request;
     }
+
+    /**
+     * @return expected value or version of a conditional request, null otherwise
+     */
+    public String getExpected() {
+        return expected;
+    }
+
+    /**
+     * For a PUT, the time in milliseconds at which the entry expires, 0 if it
+     * never expires. For an EXPIRE, keys expiring at or before this time are removed.
+     * @return expiry time
+     */
+    public long getExpiresAt() {
+        return expiresAt;
+    }
+
+    /**
+     * @return keys removed by an EXPIRE request, null for other requests
+     */
+    public List<String> getKeys() {
+        return keys;
+    }
+
+    /**
+     * @return time in milliseconds at which replicas evaluate expiry for this transaction
+     */
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    /**
+     * Set the time at which replicas evaluate expiry, done by the
+     * coordinator before every prepare round
+     * @param timestamp time in milliseconds
+     */
+    public void setTimestamp(long timestamp) {
+        this.timestamp = timestamp;
+    }
 }
\ No newline at end of file
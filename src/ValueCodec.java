@@ -0,0 +1,26 @@
+/**
+ * Compression codec used for large values. Implementations are
+ * identified by a single character which is stored in front of every
+ * compressed value, so values written with one codec can still be read
+ * after another codec has been configured.
+ */
+public interface ValueCodec {
+    /**
+     * @return identification of the codec, stored with every compressed value
+     */
+    char getId();
+
+    /**
+     * Compress the bytes of a value
+     * @param data uncompressed bytes
+     * @return compressed bytes
+     */
+    byte[] compress(byte[] data);
+
+    /**
+     * Restore the bytes of a value compressed by this codec
+     * @param data compressed bytes
+     * @return uncompressed bytes
+     */
+    byte[] decompress(byte[] data);
+}
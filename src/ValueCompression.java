@@ -0,0 +1,140 @@
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Compresses large values once, at the server which receives the client
+ * request, so they travel through 2PC and are kept by every store in
+ * compressed form. Values stay Strings: a compressed value is a marker
+ * character, the codec id, and the compressed bytes with one character
+ * per byte. Such strings only use characters up to 0xFF, which the JVM
+ * stores with one byte per character. Values shorter than the threshold,
+ * or which do not get smaller, are kept as they are.
+ */
+public class ValueCompression {
+    private static final char MARKER = '\u0000';
+    // id used for uncompressed values which happen to start with the marker
+    private static final char ESCAPED = 'R';
+
+    private final int thresholdBytes;
+    private final ValueCodec codec;
+    private final Map<Character, ValueCodec> codecs = new HashMap<>();
+
+    private final AtomicLong compressedValues = new AtomicLong();
+    private final AtomicLong uncompressedBytes = new AtomicLong();
+    private final AtomicLong compressedBytes = new AtomicLong();
+    private final AtomicLong compressAttempts = new AtomicLong();
+    private final AtomicLong compressNanos = new AtomicLong();
+
+    /**
+     * Create a compression setting
+     * @param thresholdBytes values of at least this many bytes are compressed, 0 disables compression
+     * @param codec codec used to compress new values
+     * @param otherCodecs further codecs which may have compressed values already in the store
+     */
+    public ValueCompression(int thresholdBytes, ValueCodec codec, ValueCodec... otherCodecs) {
+        if (thresholdBytes < 0) {
+            throw new IllegalArgumentException("Compression threshold cannot be negative");
+        }
+        this.thresholdBytes = thresholdBytes;
+        this.codec = codec;
+        codecs.put(codec.getId(), codec);
+        for (ValueCodec other : otherCodecs) {
+            codecs.putIfAbsent(other.getId(), other);
+        }
+    }
+
+    /**
+     * Turn a client value into the form kept in the store
+     * @param value value sent by the client
+     * @return compressed value, or the value itself if it is not worth compressing
+     */
+    public String pack(String value) {
+        if (value == null) {
+            return null;
+        }
+        // a character takes at most 3 UTF-8 bytes, so shorter strings are below the threshold
+        if (thresholdBytes > 0 && value.length() * 3L >= thresholdBytes) {
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            if (bytes.length >= thresholdBytes) {
+                long start = System.nanoTime();
+                byte[] compressed = codec.compress(bytes);
+                compressNanos.addAndGet(System.nanoTime() - start);
+                compressAttempts.incrementAndGet();
+                if (compressed.length + 2 < bytes.length) {
+                    compressedValues.incrementAndGet();
+                    uncompressedBytes.addAndGet(bytes.length);
+                    compressedBytes.addAndGet(compressed.length + 2);
+                    return "" + MARKER + codec.getId() + new String(compressed, StandardCharsets.ISO_8859_1);
+                }
+            }
+        }
+        if (!value.isEmpty() && value.charAt(0) == MARKER) {
+            return "" + MARKER + ESCAPED + value;
+        }
+        return value;
+    }
+
+    /**
+     * Turn a value kept in the store back into the value sent by the client
+     * @param stored value from the store
+     * @return original value
+     */
+    public String unpack(String stored) {
+        if (!isPacked(stored)) {
+            return stored;
+        }
+        char id = stored.charAt(1);
+        if (id == ESCAPED) {
+            return stored.substring(2);
+        }
+        ValueCodec valueCodec = codecs.get(id);
+        if (valueCodec == null) {
+            throw new IllegalStateException("No codec configured for compressed value with id " + id);
+        }
+        byte[] compressed = stored.substring(2).getBytes(StandardCharsets.ISO_8859_1);
+        return new String(valueCodec.decompress(compressed), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Check if a stored value is compressed or escaped
+     * @param stored value from the store
+     * @return true if the value has to be unpacked before it is given to a client
+     */
+    public static boolean isPacked(String stored) {
+        return stored != null && stored.length() >= 2 && stored.charAt(0) == MARKER;
+    }
+
+    /**
+     * Check if a stored value holds compressed bytes. Such a value only uses
+     * characters up to 0xFF, so the JVM keeps it with one byte per character
+     * @param stored value from the store
+     * @return true if the value is compressed
+     */
+    public static boolean isCompressed(String stored) {
+        return isPacked(stored) && stored.charAt(1) != ESCAPED;
+    }
+
+    /**
+     * Describe a stored value for logging without printing compressed bytes
+     * @param stored value from the store
+     * @return the value, or a short description if it is compressed
+     */
+    public static String describe(String stored) {
+        return isCompressed(stored) ? String.format("<compressed, %d bytes>", stored.length()) : stored;
+    }
+
+    /**
+     * @return one line summary of the values compressed by this server
+     */
+    public String getMetrics() {
+        long values = compressedValues.get();
+        long attempts = compressAttempts.get();
+        long before = uncompressedBytes.get();
+        return String.format("Compression: threshold=%d bytes, compressedValues=%d, bytes=%d->%d (%.1f%%), " +
+                        "avgCompressTime=%.3fms", thresholdBytes, values, before, compressedBytes.get(),
+                before == 0 ? 100.0 : 100.0 * compressedBytes.get() / before,
+                attempts == 0 ? 0.0 : compressNanos.get() / 1e6 / attempts);
+    }
+}